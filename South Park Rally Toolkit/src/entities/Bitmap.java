@@ -1,11 +1,11 @@
 package entities;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.List;
 
 public class Bitmap {
@@ -30,7 +30,10 @@ public class Bitmap {
 		this.index = index;
 		this.colorDepth = colorDepth;
 		if (colorDepth == 4) {
-			swapPixels(pixels);
+			this.pixels = swapPixels(pixels);
+			for (int i = 0; i < mipmaps.size(); i++) {
+				mipmaps.set(i, swapPixels(mipmaps.get(i)));
+			}
 		} else {
 			this.pixels = pixels;
 		}
@@ -110,24 +113,16 @@ public class Bitmap {
 		}
 	}
 
-	private void swapPixels(byte[] p) {
-		pixels = new byte[p.length];
-		for (int i = 0; i < p.length; i++) {
-			pixels[i]  = (byte) ((p[i] & 0xF) << 4);
-			pixels[i] |= (byte) ((p[i] & 0xF0) >> 4);
-		}
+	private static byte[] swapPixels(byte[] p) {
+		byte[] pixels = new byte[p.length];
+		PixelKernels.swapNibbles(p, pixels);
+		return pixels;
 	}
 
 	// swap byte order (RGB <> BGR)
 	private void convertColortable(byte[] ct) {
 		colortable = new byte[ct.length];
-		
-		for (int i = 0; i < ct.length >> 2; i++) {
-			colortable[i * 4]     = ct[i * 4 + 2];
-			colortable[i * 4 + 1] = ct[i * 4 + 1];
-			colortable[i * 4 + 2] = ct[i * 4];
-			colortable[i * 4 + 3] = ct[i * 4 + 3];
-		}
+		PixelKernels.swapRedBlue32(ct, colortable);
 	}
 
 	public byte[] getVramHeader() {
@@ -139,6 +134,10 @@ public class Bitmap {
 			imageDataOffset += colortable.length;
 		}
 		
+		for (byte[] mipmap : mipmaps) {
+			chunkSize += mipmap.length;
+		}
+		
 		ByteBuffer buffer = ByteBuffer.allocate(headerSize + 8);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
 		
@@ -148,13 +147,14 @@ public class Bitmap {
 		buffer.putInt(index);
 		buffer.putShort((short) width);
 		buffer.putShort((short) height);
-		buffer.putShort((short) flags);
+		buffer.putShort((short) (mipmaps.isEmpty() ? flags & ~128 : flags | 128));
 		buffer.putShort((short) colorDepth);
 		buffer.put(bitFields);
 		buffer.putInt(imageDataOffset);
 		if (hasColortable()) {
 			buffer.putInt(headerSize);
 		}
+		buffer.putInt(0x30, mipmaps.size());
 		
 		return buffer.array();
 	}
@@ -203,29 +203,63 @@ public class Bitmap {
 		return colortable;
 	}
 
-	public byte[] getPixels() {
+	// R, G, B, A masks of a VRAM bitmap, A, R, G, B masks of an MS bitmap
+	public byte[] getBitFields() {
+		return bitFields;
+	}
+
+	// pixels of the bitmap (level 0) or of a mipmap level in VRAM row order (top-to-bottom), not copied
+	public byte[] getLevelPixels(int level) {
+		return level == 0 ? pixels : mipmaps.get(level - 1);
+	}
+
+	/*
+	 * The rows of the bitmap (level 0) or of mipmap level in reverse order, i.e. flipped from
+	 * "top-to-bottom" to MS Bitmap's "upside-down" (or vice-versa). The buffers are views
+	 * of the pixel array, nothing is copied.
+	 */
+	public ByteBuffer[] getFlippedRows(int level) {
+		byte[] pixels = level == 0 ? this.pixels : mipmaps.get(level - 1);
+		int height = this.height >> level;
+		if (height == 0) {
+			return new ByteBuffer[0];
+		}
 		int lineLength = pixels.length / height;
-		byte[] p = new byte[pixels.length];
 		
-		// flip line order from "top-to-bottom" to MS Bitmap's "upside-down" (or vice-versa)
+		ByteBuffer[] rows = new ByteBuffer[height];
 		for (int h = 0; h < height; h++) {
-			System.arraycopy(pixels, h * lineLength, p, (height - h - 1) * lineLength, lineLength);
+			rows[h] = ByteBuffer.wrap(pixels, (height - h - 1) * lineLength, lineLength);
 		}
-		return p;
+		return rows;
 	}
 
-	public byte[] getMipmap(int index) {
-		int div = (int) Math.pow(2, (index + 1));
-		int height = this.height / div;
-		byte[] pixels = mipmaps.get(index);
-		int lineLength = pixels.length / height;
-		byte[] p = new byte[pixels.length];
-		
-		// flip line order from "top-to-bottom" to MS Bitmap's "upside-down" (or vice-versa)
-		for (int h = 0; h < height; h++) {
-			System.arraycopy(pixels, h * lineLength, p, (height - h - 1) * lineLength, lineLength);
+	/*
+	 * Adds the next mipmap level (read from a .mipmapN.bmp file), returns false if
+	 * its size or color depth do not match that level.
+	 */
+	public boolean addMipmap(Bitmap mipmap) {
+		int level = mipmaps.size() + 1;
+		if (mipmap.width != width >> level || mipmap.height != height >> level || mipmap.colorDepth != colorDepth) {
+			return false;
+		}
+		mipmaps.add(mipmap.pixels);
+		numMipmaps = mipmaps.size();
+		return true;
+	}
+
+	// generates the missing levels up to numMipmaps from the smallest existing level, see MipmapFilter
+	public void generateMipmaps(int numMipmaps) {
+		while (mipmaps.size() < numMipmaps) {
+			int level = mipmaps.size() + 1;
+			int w = width >> level;
+			int h = height >> level;
+			if (w == 0 || h == 0 || w * colorDepth % 8 != 0) {
+				break;
+			}
+			byte[] source = level == 1 ? pixels : mipmaps.get(level - 2);
+			mipmaps.add(MipmapFilter.downsample(source, width >> (level - 1), height >> (level - 1), colorDepth, colortable, bitFields));
 		}
-		return p;
+		this.numMipmaps = mipmaps.size();
 	}
 
 	public boolean hasColortable() {
@@ -239,6 +273,14 @@ public class Bitmap {
 		return index;
 	}
 
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
 	public int getColorDepth() {
 		return colorDepth;
 	}
@@ -256,27 +298,37 @@ public class Bitmap {
 	}
 
 	public void writeToFile(String outputDir) throws IOException {
-		String filename = outputDir + getPaddedIndex() + ".bmp";
-		FileOutputStream fos = new FileOutputStream(new File(filename));
-		BufferedOutputStream outputStream = new BufferedOutputStream(fos);
-		outputStream.write(getBitmapHeader());
-		if (hasColortable()) {
-			outputStream.write(getColortable());
-		}
-		outputStream.write(getPixels());
-		outputStream.close();
+		writeToFile(outputDir + getPaddedIndex() + ".bmp", 0);
 		
 		for (int i = 0; i < mipmaps.size(); i++) {
-			filename = outputDir + getPaddedIndex() + ".mipmap" + (i+1) + ".bmp";
-			fos = new FileOutputStream(new File(filename));
-			outputStream = new BufferedOutputStream(fos);
-			int div = (int) Math.pow(2, (i + 1));
-			outputStream.write(getBitmapHeader(width / div, height / div));
-			if (hasColortable()) {
-				outputStream.write(getColortable());
+			writeToFile(outputDir + getPaddedIndex() + ".mipmap" + (i+1) + ".bmp", i + 1);
+		}
+	}
+
+	// header, colortable and the flipped rows are written with one gathering write
+	private void writeToFile(String filename, int level) throws IOException {
+		ByteBuffer[] rows = getFlippedRows(level);
+		ByteBuffer[] buffers = new ByteBuffer[rows.length + 2];
+		buffers[0] = ByteBuffer.wrap(getBitmapHeader(width >> level, height >> level));
+		buffers[1] = ByteBuffer.wrap(hasColortable() ? colortable : new byte[0]);
+		System.arraycopy(rows, 0, buffers, 2, rows.length);
+		
+		FileOutputStream fos = new FileOutputStream(new File(filename));
+		try {
+			writeFully(fos.getChannel(), buffers);
+		} finally {
+			fos.close();
+		}
+	}
+
+	// a gathering write may be partial, e.g. for more buffers than the OS accepts at once
+	private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+		int offset = 0;
+		while (offset < buffers.length) {
+			channel.write(buffers, offset, buffers.length - offset);
+			while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+				offset++;
 			}
-			outputStream.write(getMipmap(i));
-			outputStream.close();
 		}
 	}
 
@@ -0,0 +1,163 @@
+package entities;
+
+import java.util.HashMap;
+
+/*
+ * 2x2 box filter for the mipmaps of a bitmap. The pixels are stored as in Bitmap: rows without
+ * padding, 4 bit pixels with the left pixel in the low nibble.
+ * Indexed pixels (4, 8 bit) are averaged in the colortable and mapped to the nearest color,
+ * 16 bit pixels are averaged per bitfield channel, 24 and 32 bit pixels per byte.
+ */
+public class MipmapFilter {
+
+	/*
+	 * Returns the next smaller level (width / 2 x height / 2) of the pixels. The last row and
+	 * column are repeated if width or height are odd.
+	 * bitFields: A, R, G, B masks (little endian)
+	 */
+	public static byte[] downsample(byte[] pixels, int width, int height, int colorDepth, byte[] colortable, byte[] bitFields) {
+		int w = width / 2;
+		int h = height / 2;
+		byte[] result = new byte[w * h * colorDepth / 8];
+		
+		if (colorDepth <= 8) {
+			downsampleIndexed(pixels, width, height, colorDepth, colortable, result);
+		} else if (colorDepth == 16) {
+			downsample16(pixels, width, height, PixelKernels.getMasks16(bitFields), result);
+		} else {
+			int bytesPerPixel = colorDepth / 8;
+			for (int y = 0; y < h; y++) {
+				int row0 = y * 2 * width;
+				int row1 = Math.min(y * 2 + 1, height - 1) * width;
+				for (int x = 0; x < w; x++) {
+					int x0 = x * 2;
+					int x1 = Math.min(x * 2 + 1, width - 1);
+					for (int c = 0; c < bytesPerPixel; c++) {
+						int sum = (pixels[(row0 + x0) * bytesPerPixel + c] & 0xFF)
+							+ (pixels[(row0 + x1) * bytesPerPixel + c] & 0xFF)
+							+ (pixels[(row1 + x0) * bytesPerPixel + c] & 0xFF)
+							+ (pixels[(row1 + x1) * bytesPerPixel + c] & 0xFF);
+						result[(y * w + x) * bytesPerPixel + c] = (byte) ((sum + 2) >> 2);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static void downsampleIndexed(byte[] pixels, int width, int height, int colorDepth, byte[] colortable, byte[] result) {
+		int w = width / 2;
+		int h = height / 2;
+		
+		// averaged color -> nearest index
+		HashMap<Integer, Integer> nearest = new HashMap<Integer, Integer>();
+		int[] samples = new int[4];
+		
+		for (int y = 0; y < h; y++) {
+			int y0 = y * 2;
+			int y1 = Math.min(y * 2 + 1, height - 1);
+			for (int x = 0; x < w; x++) {
+				int x0 = x * 2;
+				int x1 = Math.min(x * 2 + 1, width - 1);
+				samples[0] = getIndex(pixels, width, colorDepth, x0, y0);
+				samples[1] = getIndex(pixels, width, colorDepth, x1, y0);
+				samples[2] = getIndex(pixels, width, colorDepth, x0, y1);
+				samples[3] = getIndex(pixels, width, colorDepth, x1, y1);
+				
+				int index = samples[0];
+				if (samples[1] != index || samples[2] != index || samples[3] != index) {
+					int color = 0;
+					for (int c = 0; c < 4; c++) {
+						int sum = 0;
+						for (int s : samples) {
+							sum += colortable[s * 4 + c] & 0xFF;
+						}
+						color |= ((sum + 2) >> 2) << (c * 8);
+					}
+					Integer cached = nearest.get(color);
+					if (cached == null) {
+						cached = findNearest(colortable, color);
+						nearest.put(color, cached);
+					}
+					index = cached;
+				}
+				setIndex(result, w, colorDepth, x, y, index);
+			}
+		}
+	}
+
+	private static int getIndex(byte[] pixels, int width, int colorDepth, int x, int y) {
+		if (colorDepth == 8) {
+			return pixels[y * width + x] & 0xFF;
+		}
+		int b = pixels[(y * width + x) >> 1];
+		return (x & 1) == 0 ? b & 0xF : (b >> 4) & 0xF;
+	}
+
+	private static void setIndex(byte[] pixels, int width, int colorDepth, int x, int y, int index) {
+		if (colorDepth == 8) {
+			pixels[y * width + x] = (byte) index;
+			return;
+		}
+		int i = (y * width + x) >> 1;
+		if ((x & 1) == 0) {
+			pixels[i] = (byte) ((pixels[i] & 0xF0) | index);
+		} else {
+			pixels[i] = (byte) ((pixels[i] & 0x0F) | (index << 4));
+		}
+	}
+
+	// squared distance over all four channels of the colortable entries
+	private static int findNearest(byte[] colortable, int color) {
+		int best = 0;
+		int bestDistance = Integer.MAX_VALUE;
+		for (int i = 0; i < colortable.length / 4; i++) {
+			int distance = 0;
+			for (int c = 0; c < 4; c++) {
+				int d = (colortable[i * 4 + c] & 0xFF) - ((color >> (c * 8)) & 0xFF);
+				distance += d * d;
+			}
+			if (distance < bestDistance) {
+				bestDistance = distance;
+				best = i;
+			}
+		}
+		return best;
+	}
+
+	private static void downsample16(byte[] pixels, int width, int height, int[] masks, byte[] result) {
+		int w = width / 2;
+		int h = height / 2;
+		
+		for (int y = 0; y < h; y++) {
+			int row0 = y * 2 * width;
+			int row1 = Math.min(y * 2 + 1, height - 1) * width;
+			for (int x = 0; x < w; x++) {
+				int x0 = x * 2;
+				int x1 = Math.min(x * 2 + 1, width - 1);
+				int p0 = get16(pixels, row0 + x0);
+				int p1 = get16(pixels, row0 + x1);
+				int p2 = get16(pixels, row1 + x0);
+				int p3 = get16(pixels, row1 + x1);
+				
+				int value = 0;
+				for (int mask : masks) {
+					if (mask == 0) {
+						continue;
+					}
+					int shift = Integer.numberOfTrailingZeros(mask);
+					int sum = ((p0 & mask) >>> shift) + ((p1 & mask) >>> shift)
+						+ ((p2 & mask) >>> shift) + ((p3 & mask) >>> shift);
+					value |= (((sum + 2) >> 2) << shift) & mask;
+				}
+				int o = (y * w + x) * 2;
+				result[o] = (byte) value;
+				result[o + 1] = (byte) (value >> 8);
+			}
+		}
+	}
+
+	private static int get16(byte[] pixels, int i) {
+		return (pixels[i * 2] & 0xFF) | ((pixels[i * 2 + 1] & 0xFF) << 8);
+	}
+}
@@ -0,0 +1,132 @@
+package entities;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+ * Pixel transforms of Bitmap. Arrays of at least WIDE_THRESHOLD bytes are processed
+ * eight bytes at a time (little endian longs, all lanes at once), shorter arrays and
+ * the remaining bytes with the scalar loops.
+ */
+public class PixelKernels {
+
+	public static final int WIDE_THRESHOLD = 64;
+
+	private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	// 1-5-5-5, used if a 16 bit bitmap has no bitfields
+	private static final int[] DEFAULT_MASKS_16 = { 0x8000, 0x7C00, 0x03E0, 0x001F };
+
+	// swaps the two pixels of every byte of a 4 bit bitmap, src and dst may be the same array
+	public static void swapNibbles(byte[] src, byte[] dst) {
+		int i = 0;
+		if (src.length >= WIDE_THRESHOLD) {
+			for (; i + 8 <= src.length; i += 8) {
+				long x = (long) LONGS.get(src, i);
+				LONGS.set(dst, i, ((x & 0x0F0F0F0F0F0F0F0FL) << 4) | ((x >>> 4) & 0x0F0F0F0F0F0F0F0FL));
+			}
+		}
+		for (; i < src.length; i++) {
+			dst[i] = (byte) (((src[i] & 0xF) << 4) | ((src[i] & 0xF0) >> 4));
+		}
+	}
+
+	// swaps byte 0 and 2 of every 4 byte entry (RGBA <> BGRA), src and dst may be the same array
+	public static void swapRedBlue32(byte[] src, byte[] dst) {
+		int i = 0;
+		if (src.length >= WIDE_THRESHOLD) {
+			for (; i + 8 <= src.length; i += 8) {
+				long x = (long) LONGS.get(src, i);
+				LONGS.set(dst, i, (x & 0xFF00FF00FF00FF00L) | ((x << 16) & 0x00FF000000FF0000L) | ((x >>> 16) & 0x000000FF000000FFL));
+			}
+		}
+		for (; i + 4 <= src.length; i += 4) {
+			byte b = src[i];
+			dst[i] = src[i + 2];
+			dst[i + 1] = src[i + 1];
+			dst[i + 2] = b;
+			dst[i + 3] = src[i + 3];
+		}
+	}
+
+	// rotates every 4 byte pixel by one byte (ARGB -> RGBA in memory order), src and dst may be the same array
+	public static void argbToRgba32(byte[] src, byte[] dst) {
+		int i = 0;
+		if (src.length >= WIDE_THRESHOLD) {
+			for (; i + 8 <= src.length; i += 8) {
+				long x = (long) LONGS.get(src, i);
+				LONGS.set(dst, i, ((x >>> 8) & 0x00FFFFFF00FFFFFFL) | ((x << 24) & 0xFF000000FF000000L));
+			}
+		}
+		for (; i + 4 <= src.length; i += 4) {
+			byte a = src[i];
+			dst[i] = src[i + 1];
+			dst[i + 1] = src[i + 2];
+			dst[i + 2] = src[i + 3];
+			dst[i + 3] = a;
+		}
+	}
+
+	/*
+	 * Expands 16 bit pixels to R, G, B, A bytes (dst has twice the length of src).
+	 * masks: A, R, G, B (see getMasks16), pixels without alpha mask are opaque.
+	 */
+	public static void expand16(byte[] src, byte[] dst, int[] masks) {
+		int[] shift = new int[4];
+		int[] max = new int[4];
+		for (int c = 0; c < 4; c++) {
+			shift[c] = Integer.numberOfTrailingZeros(masks[c]);
+			max[c] = masks[c] == 0 ? 0 : masks[c] >>> shift[c];
+		}
+		
+		for (int i = 0, o = 0; i + 2 <= src.length; i += 2, o += 4) {
+			int p = (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8);
+			dst[o] = scale(p, masks[1], shift[1], max[1]);
+			dst[o + 1] = scale(p, masks[2], shift[2], max[2]);
+			dst[o + 2] = scale(p, masks[3], shift[3], max[3]);
+			dst[o + 3] = max[0] == 0 ? (byte) 255 : scale(p, masks[0], shift[0], max[0]);
+		}
+	}
+
+	/*
+	 * Expands 32 bit pixels to R, G, B, A bytes (src and dst may be the same array).
+	 * masks: A, R, G, B, pixels without alpha mask are opaque.
+	 */
+	public static void expand32(byte[] src, byte[] dst, int[] masks) {
+		int[] shift = new int[4];
+		int[] max = new int[4];
+		for (int c = 0; c < 4; c++) {
+			shift[c] = Integer.numberOfTrailingZeros(masks[c]);
+			max[c] = masks[c] == 0 ? 0 : masks[c] >>> shift[c];
+		}
+		
+		for (int i = 0; i + 4 <= src.length; i += 4) {
+			int p = (src[i] & 0xFF) | ((src[i + 1] & 0xFF) << 8) | ((src[i + 2] & 0xFF) << 16) | ((src[i + 3] & 0xFF) << 24);
+			dst[i] = scale(p, masks[1], shift[1], max[1]);
+			dst[i + 1] = scale(p, masks[2], shift[2], max[2]);
+			dst[i + 2] = scale(p, masks[3], shift[3], max[3]);
+			dst[i + 3] = max[0] == 0 ? (byte) 255 : scale(p, masks[0], shift[0], max[0]);
+		}
+	}
+
+	private static byte scale(int p, int mask, int shift, int max) {
+		if (max == 0) {
+			return 0;
+		}
+		return (byte) ((((p & mask) >>> shift) * 255L + max / 2) / max);
+	}
+
+	// A, R, G, B masks of 16 bit pixels from the (swapped) bitfields of a Bitmap
+	public static int[] getMasks16(byte[] bitFields) {
+		int[] masks = new int[4];
+		boolean empty = true;
+		for (int i = 0; i < 4; i++) {
+			masks[i] = (bitFields[i * 4] & 0xFF) | ((bitFields[i * 4 + 1] & 0xFF) << 8);
+			if (masks[i] != 0) {
+				empty = false;
+			}
+		}
+		return empty ? DEFAULT_MASKS_16 : masks;
+	}
+}
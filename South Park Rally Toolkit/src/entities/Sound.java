@@ -1,11 +1,13 @@
 package entities;
 
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public class Sound {
 
@@ -27,6 +29,7 @@ public class Sound {
 	private String subchunk2Id = "data";
 	private int subchunk2Size;
 	private byte[] data;
+	private long dataPosition;
 	
 	private int value1;
 	private int value2;
@@ -61,6 +64,14 @@ public class Sound {
 		return data;
 	}
 
+	public void setDataPosition(long dataPosition) {
+		this.dataPosition = dataPosition;
+	}
+
+	public long getDataPosition() {
+		return dataPosition;
+	}
+
 	public byte[] getRbhHeader(int size, int offset) {
 		ByteBuffer buffer = ByteBuffer.allocate(0x28);
 		buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -116,6 +127,27 @@ public class Sound {
 		outputStream.close();
 	}
 
+	// copy the sample data directly from the resource file at getDataPosition()
+	public void writeToFile(String outputDir, FileChannel source) throws IOException {
+		String filename = outputDir + getPaddedIndex() + ".wav";
+		FileOutputStream fos = new FileOutputStream(new File(filename));
+		FileChannel target = fos.getChannel();
+		target.write(ByteBuffer.wrap(getWaveHeader()));
+		
+		long position = dataPosition;
+		long remaining = subchunk2Size;
+		while (remaining > 0) {
+			long n = source.transferTo(position, remaining, target);
+			if (n <= 0) {
+				fos.close();
+				throw new EOFException();
+			}
+			position += n;
+			remaining -= n;
+		}
+		fos.close();
+	}
+
 	public void setValue1(int value1) {
 		this.value1 = value1;
 	}
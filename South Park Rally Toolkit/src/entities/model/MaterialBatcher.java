@@ -0,0 +1,127 @@
+package entities.model;
+
+import java.util.List;
+
+/*
+ * Merges triangulated models into one model in which the triangles of a material form
+ * one contiguous batch. Vertices of wheels are moved to the wheel position, all indices
+ * are shifted to the merged arrays.
+ */
+public class MaterialBatcher {
+
+	/*
+	 * ranges[i] receives the triangles of model i in the merged model: for every material
+	 * the first triangle (counted from the start of the batch) and the number of triangles
+	 */
+	public static Model merge(List<Model> models, int numMaterials, int[][] ranges) {
+		int numVerts = 0, numNormals = 0, numTexCoords = 0, numVertices = 0;
+		int numFaces = 0, numCorners = 0;
+		int[] materialOffsets = new int[numMaterials + 1];
+		
+		for (Model m : models) {
+			numVerts += m.getNumVerts();
+			numNormals += m.getNumNormals();
+			numTexCoords += m.getNumTexCoords();
+			numVertices += m.getNumWeldedVertices();
+			numFaces += m.getNumFaces();
+			numCorners += m.getFaceIndices().length;
+			for (int t = 0; t < m.getNumMaterials(); t++) {
+				materialOffsets[t + 1] += m.getMaterialOffsets()[t + 1] - m.getMaterialOffsets()[t];
+			}
+		}
+		for (int t = 0; t < numMaterials; t++) {
+			materialOffsets[t + 1] += materialOffsets[t];
+		}
+		
+		float[] verts = new float[numVerts * 3];
+		float[] normals = new float[numNormals * 3];
+		float[] texCoords = new float[numTexCoords * 2];
+		int[] vertexTable = new int[numVertices * 3];
+		int[] triangles = new int[materialOffsets[numMaterials]];
+		
+		int[] faceOffsets = new int[numFaces + 1];
+		int[] faceIndices = new int[numCorners];
+		int[] faceNormalIds = new int[numFaces];
+		int[] faceTexIds = new int[numFaces];
+		int[] texCoordIds = new int[numCorners];
+		int[] vertexIds = new int[numCorners];
+		
+		int[] next = new int[numMaterials];
+		System.arraycopy(materialOffsets, 0, next, 0, numMaterials);
+		
+		int vertOffset = 0, normalOffset = 0, texCoordOffset = 0, vertexOffset = 0;
+		int faceOffset = 0, cornerOffset = 0;
+		
+		for (int i = 0; i < models.size(); i++) {
+			Model m = models.get(i);
+			
+			float[] mVerts = m.getVerts();
+			Vertex translation = m.isWheel() ? m.getWheelPosition() : null;
+			for (int v = 0; v < mVerts.length; v += 3) {
+				int o = vertOffset * 3 + v;
+				verts[o] = mVerts[v];
+				verts[o + 1] = mVerts[v + 1];
+				verts[o + 2] = mVerts[v + 2];
+				if (translation != null) {
+					verts[o] += translation.x;
+					verts[o + 1] += translation.y;
+					verts[o + 2] += translation.z;
+				}
+			}
+			System.arraycopy(m.getNormals(), 0, normals, normalOffset * 3, m.getNumNormals() * 3);
+			System.arraycopy(m.getTexCoords(), 0, texCoords, texCoordOffset * 2, m.getNumTexCoords() * 2);
+			
+			int[] mVertexTable = m.getVertexTable();
+			for (int v = 0; v < mVertexTable.length; v += 3) {
+				int o = vertexOffset * 3 + v;
+				vertexTable[o] = mVertexTable[v] + vertOffset;
+				vertexTable[o + 1] = mVertexTable[v + 1] + texCoordOffset;
+				vertexTable[o + 2] = mVertexTable[v + 2] + normalOffset;
+			}
+			
+			ranges[i] = new int[numMaterials * 2];
+			int[] mTriangles = m.getTriangles();
+			int[] mMaterialOffsets = m.getMaterialOffsets();
+			for (int t = 0; t < m.getNumMaterials(); t++) {
+				ranges[i][t * 2] = (next[t] - materialOffsets[t]) / 3;
+				ranges[i][t * 2 + 1] = (mMaterialOffsets[t + 1] - mMaterialOffsets[t]) / 3;
+				for (int j = mMaterialOffsets[t]; j < mMaterialOffsets[t + 1]; j++) {
+					triangles[next[t]++] = mTriangles[j] + vertexOffset;
+				}
+			}
+			
+			// the faces are kept so that the merged model is complete
+			int[] mFaceOffsets = m.getFaceOffsets();
+			int[] mFaceIndices = m.getFaceIndices();
+			int[] mTexCoordIds = m.getTexCoordIds();
+			int[] mVertexIds = m.getVertexIds();
+			for (int f = 0; f < m.getNumFaces(); f++) {
+				faceOffsets[faceOffset + f + 1] = cornerOffset + mFaceOffsets[f + 1];
+				faceNormalIds[faceOffset + f] = m.getFaceNormalIds()[f] + normalOffset;
+				faceTexIds[faceOffset + f] = m.getFaceTexId(f);
+			}
+			for (int c = 0; c < mFaceIndices.length; c++) {
+				faceIndices[cornerOffset + c] = mFaceIndices[c] + vertOffset;
+				texCoordIds[cornerOffset + c] = mTexCoordIds[c] + texCoordOffset;
+				vertexIds[cornerOffset + c] = mVertexIds[c] + vertexOffset;
+			}
+			
+			vertOffset += m.getNumVerts();
+			normalOffset += m.getNumNormals();
+			texCoordOffset += m.getNumTexCoords();
+			vertexOffset += m.getNumWeldedVertices();
+			faceOffset += m.getNumFaces();
+			cornerOffset += mFaceIndices.length;
+		}
+		
+		Model merged = new Model();
+		merged.setNumVerts(numVerts);
+		merged.setVerts(verts);
+		merged.setNormals(normals);
+		merged.setFaces(faceOffsets, faceIndices, faceNormalIds, faceTexIds);
+		merged.setTexCoords(texCoords, texCoordIds);
+		merged.setVertexTable(vertexTable, vertexIds);
+		merged.setTriangles(triangles, materialOffsets);
+		return merged;
+	}
+}
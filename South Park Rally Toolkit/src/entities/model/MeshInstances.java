@@ -0,0 +1,53 @@
+package entities.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Finds models with identical geometry (vertices, normals, texture coordinates and triangles),
+ * e.g. the four wheels of a car or submodels shared by several LODs. Every model after the
+ * first of its kind is marked as an instance of that first model (see Model.getInstanceOf),
+ * exporters store the geometry once and place the instances with their own transform.
+ */
+public class MeshInstances {
+
+	public static void find(List<Model> models) {
+		HashMap<Integer, Model> prototypes = new HashMap<Integer, Model>();
+		
+		for (Model m : models) {
+			int hash = hash(m);
+			
+			// models with equal hashes but different geometry are chained by probing the next hash
+			Model prototype;
+			while ((prototype = prototypes.get(hash)) != null && !sameGeometry(prototype, m)) {
+				hash++;
+			}
+			
+			if (prototype == null) {
+				prototypes.put(hash, m);
+				m.setInstanceOf(null);
+			} else {
+				m.setInstanceOf(prototype);
+			}
+		}
+	}
+
+	private static int hash(Model m) {
+		int h = Arrays.hashCode(m.getVerts());
+		h = h * 31 + Arrays.hashCode(m.getNormals());
+		h = h * 31 + Arrays.hashCode(m.getTexCoords());
+		h = h * 31 + Arrays.hashCode(m.getVertexTable());
+		h = h * 31 + Arrays.hashCode(m.getTriangles());
+		return h * 31 + Arrays.hashCode(m.getMaterialOffsets());
+	}
+
+	public static boolean sameGeometry(Model a, Model b) {
+		return Arrays.equals(a.getVerts(), b.getVerts())
+			&& Arrays.equals(a.getNormals(), b.getNormals())
+			&& Arrays.equals(a.getTexCoords(), b.getTexCoords())
+			&& Arrays.equals(a.getVertexTable(), b.getVertexTable())
+			&& Arrays.equals(a.getTriangles(), b.getTriangles())
+			&& Arrays.equals(a.getMaterialOffsets(), b.getMaterialOffsets());
+	}
+}
@@ -0,0 +1,114 @@
+package entities.model;
+
+import java.util.Arrays;
+
+/*
+ * Merges duplicate data of a model read with one texture coordinate per face corner:
+ * - identical texture coordinates are stored once (optionally within uvEpsilon)
+ * - identical (vertex id, texture coordinate, normal id) corners share one vertex,
+ *   referenced by an index per corner
+ */
+public class MeshWelder {
+
+	public static void weld(Model m, float uvEpsilon) {
+		int[] faceOffsets = m.getFaceOffsets();
+		int[] faceIndices = m.getFaceIndices();
+		int[] faceNormalIds = m.getFaceNormalIds();
+		float[] texCoords = m.getTexCoords();
+		int numCorners = faceIndices.length;
+		
+		// texture coordinates
+		int[] keys = new int[numCorners * 2];
+		for (int i = 0; i < numCorners; i++) {
+			keys[i * 2] = quantize(texCoords[i * 2], uvEpsilon);
+			keys[i * 2 + 1] = quantize(texCoords[i * 2 + 1], uvEpsilon);
+		}
+		
+		int[] texCoordIds = new int[numCorners];
+		int[] first = new int[numCorners];
+		int numTexCoords = unique(keys, 2, numCorners, texCoordIds, first);
+		
+		float[] uniqueTexCoords = new float[numTexCoords * 2];
+		for (int i = 0; i < numTexCoords; i++) {
+			uniqueTexCoords[i * 2] = texCoords[first[i] * 2];
+			uniqueTexCoords[i * 2 + 1] = texCoords[first[i] * 2 + 1];
+		}
+		
+		// vertices
+		keys = new int[numCorners * 3];
+		for (int f = 0; f < m.getNumFaces(); f++) {
+			for (int i = faceOffsets[f]; i < faceOffsets[f + 1]; i++) {
+				keys[i * 3] = faceIndices[i];
+				keys[i * 3 + 1] = texCoordIds[i];
+				keys[i * 3 + 2] = faceNormalIds[f];
+			}
+		}
+		
+		int[] vertexIds = new int[numCorners];
+		int numVertices = unique(keys, 3, numCorners, vertexIds, first);
+		
+		int[] vertexTable = new int[numVertices * 3];
+		for (int i = 0; i < numVertices; i++) {
+			System.arraycopy(keys, first[i] * 3, vertexTable, i * 3, 3);
+		}
+		
+		m.setTexCoords(uniqueTexCoords, texCoordIds);
+		m.setVertexTable(vertexTable, vertexIds);
+	}
+
+	private static int quantize(float value, float epsilon) {
+		if (epsilon > 0) {
+			return Math.round(value / epsilon);
+		}
+		return Float.floatToIntBits(value);
+	}
+
+	/*
+	 * Open addressing hash over keys of keySize ints.
+	 * ids[i] receives the unique index of key i, first[u] the first key with unique index u.
+	 * Returns the number of unique keys.
+	 */
+	private static int unique(int[] keys, int keySize, int count, int[] ids, int[] first) {
+		int capacity = Integer.highestOneBit(Math.max(count, 1) * 2 - 1) << 1;
+		int mask = capacity - 1;
+		int[] table = new int[capacity];
+		Arrays.fill(table, -1);
+		
+		int numUnique = 0;
+		for (int i = 0; i < count; i++) {
+			int slot = hash(keys, i * keySize, keySize) & mask;
+			while (true) {
+				int u = table[slot];
+				if (u == -1) {
+					table[slot] = numUnique;
+					first[numUnique] = i;
+					ids[i] = numUnique++;
+					break;
+				}
+				if (equals(keys, first[u] * keySize, i * keySize, keySize)) {
+					ids[i] = u;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		return numUnique;
+	}
+
+	private static int hash(int[] keys, int offset, int keySize) {
+		int h = 0;
+		for (int i = 0; i < keySize; i++) {
+			h = (h ^ keys[offset + i]) * 0x9E3779B1;
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean equals(int[] keys, int a, int b, int keySize) {
+		for (int i = 0; i < keySize; i++) {
+			if (keys[a + i] != keys[b + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,12 +1,36 @@
 package entities.model;
 
-import java.util.ArrayList;
-
+/*
+ * Geometry is stored in primitive arrays:
+ * verts, normals	x, y, z per entry
+ * texCoords		u, v per entry
+ * faces			the corners of face f are faceIndices[faceOffsets[f] .. faceOffsets[f + 1] - 1]
+ * texCoordIds		texture coordinate of each corner
+ * vertexIds		vertex of each corner, a vertex is a (vertex id, texCoord id, normal id)
+ * 					triple in vertexTable
+ * triangles		3 vertices per triangle, the triangles of material t are
+ * 					triangles[materialOffsets[t] .. materialOffsets[t + 1] - 1]
+ *
+ * ModelReader stores one texture coordinate per corner, MeshWelder merges the duplicates
+ * and Triangulator splits the faces into triangles.
+ * A model with the same geometry as an earlier one is an instance of it, see MeshInstances.
+ */
 public class Model {
-	private ArrayList<Vertex> verts;
-	private ArrayList<Normal> normals;
-	private ArrayList<TexCoord> texCoords;
-	private ArrayList<Face> faces;
+	private float[] verts;
+	private float[] normals;
+	private float[] texCoords;
+	private int[] texCoordIds;
+	
+	private int[] faceOffsets;
+	private int[] faceIndices;
+	private int[] faceNormalIds;
+	private int[] faceTexIds;
+	
+	private int[] vertexTable;
+	private int[] vertexIds;
+	
+	private int[] triangles;
+	private int[] materialOffsets;
 	
 	private int sumNumVerts;
 	private int vertexOffset;
@@ -17,45 +41,113 @@ public class Model {
 	private int wheelIndex;
 	private boolean isWheel;
 	private Vertex wheelPosition;
+	
+	private Model instanceOf;
 
 	public String toString() {
-		return String.format("[Model] #verts: %d, #normals: %d, #texCoords: %d, numFaces: %d", verts.size(), normals.size(), texCoords.size(), faces.size());
+		return String.format("[Model] #verts: %d, #normals: %d, #texCoords: %d, numFaces: %d", getNumVerts(), getNumNormals(), getNumTexCoords(), getNumFaces());
 	}
 
 	public int getNumVerts() {
-		return verts.size();
+		return verts.length / 3;
 	}
 
 	public int getNumTexCoords() {
-		return texCoords.size();
+		return texCoords.length / 2;
 	}
 
 	public int getNumFaces() {
-		return faces.size();
+		return faceTexIds.length;
 	}
 
-	public ArrayList<Vertex> getVerts() {
+	public float[] getVerts() {
 		return verts;
 	}
 
-	public ArrayList<TexCoord> getTexCoords() {
+	public float[] getTexCoords() {
 		return texCoords;
 	}
 
-	public ArrayList<Face> getFaces() {
-		return faces;
-	}
-
-	public void setVerts(ArrayList<Vertex> verts) {
+	public void setVerts(float[] verts) {
 		this.verts = verts;
 	}
 
-	public void setTexCoords(ArrayList<TexCoord> texCoords) {
+	public void setTexCoords(float[] texCoords, int[] texCoordIds) {
 		this.texCoords = texCoords;
+		this.texCoordIds = texCoordIds;
+	}
+
+	public int[] getTexCoordIds() {
+		return texCoordIds;
+	}
+
+	public void setVertexTable(int[] vertexTable, int[] vertexIds) {
+		this.vertexTable = vertexTable;
+		this.vertexIds = vertexIds;
 	}
 
-	public void setFaces(ArrayList<Face> faces) {
-		this.faces = faces;
+	public int[] getVertexTable() {
+		return vertexTable;
+	}
+
+	public int[] getVertexIds() {
+		return vertexIds;
+	}
+
+	public int getNumWeldedVertices() {
+		return vertexTable.length / 3;
+	}
+
+	public void setTriangles(int[] triangles, int[] materialOffsets) {
+		this.triangles = triangles;
+		this.materialOffsets = materialOffsets;
+	}
+
+	public int[] getTriangles() {
+		return triangles;
+	}
+
+	public int[] getMaterialOffsets() {
+		return materialOffsets;
+	}
+
+	public int getNumMaterials() {
+		return materialOffsets.length - 1;
+	}
+
+	public int getNumTriangles() {
+		return triangles.length / 3;
+	}
+
+	public void setFaces(int[] faceOffsets, int[] faceIndices, int[] faceNormalIds, int[] faceTexIds) {
+		this.faceOffsets = faceOffsets;
+		this.faceIndices = faceIndices;
+		this.faceNormalIds = faceNormalIds;
+		this.faceTexIds = faceTexIds;
+	}
+
+	public int[] getFaceOffsets() {
+		return faceOffsets;
+	}
+
+	public int[] getFaceIndices() {
+		return faceIndices;
+	}
+
+	public int[] getFaceNormalIds() {
+		return faceNormalIds;
+	}
+
+	public int[] getFaceTexIds() {
+		return faceTexIds;
+	}
+
+	public int getFaceNumVerts(int face) {
+		return faceOffsets[face + 1] - faceOffsets[face];
+	}
+
+	public int getFaceTexId(int face) {
+		return faceTexIds[face];
 	}
 
 	public void setNumVerts(int sumNumVerts) {
@@ -74,7 +166,7 @@ public class Model {
 		return normalOffset;
 	}
 
-	public void setNormals(ArrayList<Normal> normals) {
+	public void setNormals(float[] normals) {
 		this.normals = normals;
 	}
 
@@ -82,12 +174,12 @@ public class Model {
 		return vertexOffset;
 	}
 
-	public ArrayList<Normal> getNormals() {
+	public float[] getNormals() {
 		return normals;
 	}
 
 	public int getNumNormals() {
-		return normals.size();
+		return normals.length / 3;
 	}
 
 	public void setLodIndex(int lodIndex) {
@@ -127,4 +219,13 @@ public class Model {
 	public Vertex getWheelPosition() {
 		return wheelPosition;
 	}
+
+	public void setInstanceOf(Model instanceOf) {
+		this.instanceOf = instanceOf;
+	}
+
+	// the first model with the same geometry, null if this model is the first
+	public Model getInstanceOf() {
+		return instanceOf;
+	}
 }
@@ -0,0 +1,113 @@
+package entities.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Buckets models into a uniform grid on the ground plane (x, z). A model belongs to the cell
+ * that contains the center of its bounding box, the bounds of a cell enclose all of its models.
+ * Cells without models are not stored, the cells are sorted by z, then x.
+ */
+public class SpatialGrid {
+
+	public static class Cell {
+		private int x;
+		private int z;
+		private float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		private float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		private ArrayList<Integer> modelIndices = new ArrayList<Integer>();
+		
+		public int getX() {
+			return x;
+		}
+		
+		public int getZ() {
+			return z;
+		}
+		
+		public float[] getMin() {
+			return min;
+		}
+		
+		public float[] getMax() {
+			return max;
+		}
+		
+		// indices in the model list the grid was built from
+		public List<Integer> getModelIndices() {
+			return modelIndices;
+		}
+	}
+
+	private float cellSize;
+	private ArrayList<Cell> cells = new ArrayList<Cell>();
+
+	public SpatialGrid(List<Model> models, float cellSize) {
+		this.cellSize = cellSize;
+		
+		HashMap<Long, Cell> cellMap = new HashMap<Long, Cell>();
+		float[] min = new float[3];
+		float[] max = new float[3];
+		
+		for (int i = 0; i < models.size(); i++) {
+			Model m = models.get(i);
+			if (m.getNumVerts() == 0) {
+				continue;
+			}
+			getBounds(m, min, max);
+			
+			int x = (int) Math.floor((min[0] + max[0]) / 2 / cellSize);
+			int z = (int) Math.floor((min[2] + max[2]) / 2 / cellSize);
+			long key = ((long) z << 32) | (x & 0xFFFFFFFFL);
+			
+			Cell cell = cellMap.get(key);
+			if (cell == null) {
+				cell = new Cell();
+				cell.x = x;
+				cell.z = z;
+				cellMap.put(key, cell);
+				cells.add(cell);
+			}
+			cell.modelIndices.add(i);
+			for (int c = 0; c < 3; c++) {
+				cell.min[c] = Math.min(cell.min[c], min[c]);
+				cell.max[c] = Math.max(cell.max[c], max[c]);
+			}
+		}
+		
+		cells.sort((a, b) -> a.z != b.z ? Integer.compare(a.z, b.z) : Integer.compare(a.x, b.x));
+	}
+
+	// bounding box of the vertices, moved to the wheel position for wheels
+	private static void getBounds(Model m, float[] min, float[] max) {
+		float[] verts = m.getVerts();
+		Vertex translation = m.isWheel() ? m.getWheelPosition() : null;
+		for (int c = 0; c < 3; c++) {
+			min[c] = Float.MAX_VALUE;
+			max[c] = -Float.MAX_VALUE;
+		}
+		for (int v = 0; v < verts.length; v += 3) {
+			for (int c = 0; c < 3; c++) {
+				min[c] = Math.min(min[c], verts[v + c]);
+				max[c] = Math.max(max[c], verts[v + c]);
+			}
+		}
+		if (translation != null) {
+			min[0] += translation.x;
+			min[1] += translation.y;
+			min[2] += translation.z;
+			max[0] += translation.x;
+			max[1] += translation.y;
+			max[2] += translation.z;
+		}
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+	public List<Cell> getCells() {
+		return cells;
+	}
+}
@@ -0,0 +1,171 @@
+package entities.model;
+
+/*
+ * Splits the faces of a welded model into triangles, grouped by material.
+ * Convex faces are fan-triangulated, concave ones are ear-clipped in the plane of the face.
+ * Corners are taken in reverse order, which is the winding the exporters always used.
+ */
+public class Triangulator {
+
+	public static void triangulate(Model m) {
+		int[] faceOffsets = m.getFaceOffsets();
+		int[] vertexIds = m.getVertexIds();
+		float[] verts = m.getVerts();
+		int[] faceIndices = m.getFaceIndices();
+		
+		int numMaterials = 0;
+		for (int texId : m.getFaceTexIds()) {
+			numMaterials = Math.max(numMaterials, texId + 1);
+		}
+		
+		// counting sort of the faces by material
+		int[] materialOffsets = new int[numMaterials + 1];
+		for (int f = 0; f < m.getNumFaces(); f++) {
+			materialOffsets[m.getFaceTexId(f) + 1] += Math.max(m.getFaceNumVerts(f) - 2, 0) * 3;
+		}
+		for (int t = 0; t < numMaterials; t++) {
+			materialOffsets[t + 1] += materialOffsets[t];
+		}
+		
+		int[] triangles = new int[materialOffsets[numMaterials]];
+		int[] next = new int[numMaterials];
+		System.arraycopy(materialOffsets, 0, next, 0, numMaterials);
+		
+		int maxCorners = 0;
+		for (int f = 0; f < m.getNumFaces(); f++) {
+			maxCorners = Math.max(maxCorners, m.getFaceNumVerts(f));
+		}
+		int[] polygon = new int[maxCorners];
+		float[] xy = new float[maxCorners * 2];
+		
+		for (int f = 0; f < m.getNumFaces(); f++) {
+			int n = m.getFaceNumVerts(f);
+			if (n < 3) {
+				continue;
+			}
+			for (int k = 0; k < n; k++) {
+				polygon[k] = faceOffsets[f + 1] - 1 - k;
+			}
+			
+			int t = m.getFaceTexId(f);
+			if (n == 3 || !project(verts, faceIndices, polygon, n, xy) || isConvex(xy, n)) {
+				for (int k = 1; k < n - 1; k++) {
+					triangles[next[t]++] = vertexIds[polygon[0]];
+					triangles[next[t]++] = vertexIds[polygon[k]];
+					triangles[next[t]++] = vertexIds[polygon[k + 1]];
+				}
+			} else {
+				next[t] = clipEars(polygon, n, xy, vertexIds, triangles, next[t]);
+			}
+		}
+		
+		m.setTriangles(triangles, materialOffsets);
+	}
+
+	/*
+	 * Projects the corners onto the coordinate plane most parallel to the face,
+	 * oriented so that the polygon is counter-clockwise. Returns false for degenerate faces.
+	 */
+	private static boolean project(float[] verts, int[] faceIndices, int[] polygon, int n, float[] xy) {
+		// Newell's method
+		float nx = 0, ny = 0, nz = 0;
+		for (int k = 0; k < n; k++) {
+			int a = faceIndices[polygon[k]] * 3;
+			int b = faceIndices[polygon[(k + 1) % n]] * 3;
+			nx += (verts[a + 1] - verts[b + 1]) * (verts[a + 2] + verts[b + 2]);
+			ny += (verts[a + 2] - verts[b + 2]) * (verts[a] + verts[b]);
+			nz += (verts[a] - verts[b]) * (verts[a + 1] + verts[b + 1]);
+		}
+		
+		float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+		if (ax + ay + az == 0) {
+			return false;
+		}
+		
+		int u, v;
+		float sign;
+		if (ax >= ay && ax >= az) {
+			u = 1; v = 2; sign = nx;
+		} else if (ay >= az) {
+			u = 2; v = 0; sign = ny;
+		} else {
+			u = 0; v = 1; sign = nz;
+		}
+		for (int k = 0; k < n; k++) {
+			int a = faceIndices[polygon[k]] * 3;
+			xy[k * 2] = verts[a + u];
+			xy[k * 2 + 1] = sign < 0 ? -verts[a + v] : verts[a + v];
+		}
+		return true;
+	}
+
+	private static float cross(float[] xy, int a, int b, int c) {
+		return (xy[b * 2] - xy[a * 2]) * (xy[c * 2 + 1] - xy[a * 2 + 1])
+			- (xy[b * 2 + 1] - xy[a * 2 + 1]) * (xy[c * 2] - xy[a * 2]);
+	}
+
+	private static boolean isConvex(float[] xy, int n) {
+		for (int k = 0; k < n; k++) {
+			if (cross(xy, k, (k + 1) % n, (k + 2) % n) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int clipEars(int[] polygon, int n, float[] xy, int[] vertexIds, int[] triangles, int next) {
+		int[] remaining = new int[n];
+		for (int k = 0; k < n; k++) {
+			remaining[k] = k;
+		}
+		
+		while (n > 3) {
+			int ear = -1;
+			for (int k = 0; k < n && ear == -1; k++) {
+				if (isEar(remaining, n, k, xy)) {
+					ear = k;
+				}
+			}
+			if (ear == -1) {
+				break; // numerically degenerate, the rest is fanned
+			}
+			
+			int a = remaining[(ear + n - 1) % n];
+			int b = remaining[ear];
+			int c = remaining[(ear + 1) % n];
+			triangles[next++] = vertexIds[polygon[a]];
+			triangles[next++] = vertexIds[polygon[b]];
+			triangles[next++] = vertexIds[polygon[c]];
+			
+			System.arraycopy(remaining, ear + 1, remaining, ear, n - ear - 1);
+			n--;
+		}
+		
+		for (int k = 1; k < n - 1; k++) {
+			triangles[next++] = vertexIds[polygon[remaining[0]]];
+			triangles[next++] = vertexIds[polygon[remaining[k]]];
+			triangles[next++] = vertexIds[polygon[remaining[k + 1]]];
+		}
+		return next;
+	}
+
+	private static boolean isEar(int[] remaining, int n, int k, float[] xy) {
+		int a = remaining[(k + n - 1) % n];
+		int b = remaining[k];
+		int c = remaining[(k + 1) % n];
+		
+		if (cross(xy, a, b, c) <= 0) {
+			return false;
+		}
+		for (int i = 0; i < n; i++) {
+			int p = remaining[i];
+			if (p == a || p == b || p == c) {
+				continue;
+			}
+			if (cross(xy, a, b, p) >= 0 && cross(xy, b, c, p) >= 0 && cross(xy, c, a, p) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
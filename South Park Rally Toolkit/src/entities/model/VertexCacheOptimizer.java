@@ -0,0 +1,231 @@
+package entities.model;
+
+import java.util.Arrays;
+
+/*
+ * Reorders the triangles of a triangulated model for the post-transform vertex cache
+ * (Tom Forsyth, "Linear-Speed Vertex Cache Optimisation") and then renumbers the welded
+ * vertices in the order the triangles first use them.
+ * Triangles stay grouped by material, only the order within a material changes.
+ */
+public class VertexCacheOptimizer {
+
+	// simulated LRU cache used for scoring
+	private static final int CACHE_SIZE = 32;
+	private static final float CACHE_DECAY_POWER = 1.5f;
+	private static final float LAST_TRIANGLE_SCORE = 0.75f;
+	private static final float VALENCE_BOOST_SCALE = 2.0f;
+	private static final float VALENCE_BOOST_POWER = 0.5f;
+
+	// FIFO cache used to measure the ACMR
+	public static final int FIFO_SIZE = 16;
+
+	/*
+	 * Returns the ACMR (average cache miss ratio: transformed vertices per triangle)
+	 * before and after the optimization.
+	 */
+	public static float[] optimize(Model m) {
+		int[] triangles = m.getTriangles();
+		int[] materialOffsets = m.getMaterialOffsets();
+		int numVertices = m.getNumWeldedVertices();
+		
+		float before = acmr(triangles, numVertices, FIFO_SIZE);
+		
+		int[] ordered = new int[triangles.length];
+		for (int t = 0; t < m.getNumMaterials(); t++) {
+			orderTriangles(triangles, materialOffsets[t], materialOffsets[t + 1], numVertices, ordered);
+		}
+		
+		// renumber the vertices by first use, vertices of degenerate faces go last
+		int[] newIds = new int[numVertices];
+		Arrays.fill(newIds, -1);
+		int next = 0;
+		for (int i = 0; i < ordered.length; i++) {
+			int v = ordered[i];
+			if (newIds[v] == -1) {
+				newIds[v] = next++;
+			}
+			ordered[i] = newIds[v];
+		}
+		for (int v = 0; v < numVertices; v++) {
+			if (newIds[v] == -1) {
+				newIds[v] = next++;
+			}
+		}
+		
+		int[] vertexTable = m.getVertexTable();
+		int[] newVertexTable = new int[vertexTable.length];
+		for (int v = 0; v < numVertices; v++) {
+			System.arraycopy(vertexTable, v * 3, newVertexTable, newIds[v] * 3, 3);
+		}
+		int[] vertexIds = m.getVertexIds();
+		int[] newVertexIds = new int[vertexIds.length];
+		for (int i = 0; i < vertexIds.length; i++) {
+			newVertexIds[i] = newIds[vertexIds[i]];
+		}
+		
+		m.setVertexTable(newVertexTable, newVertexIds);
+		m.setTriangles(ordered, materialOffsets);
+		
+		return new float[] { before, acmr(ordered, numVertices, FIFO_SIZE) };
+	}
+
+	public static float acmr(int[] triangles, int numVertices, int cacheSize) {
+		if (triangles.length == 0) {
+			return 0;
+		}
+		
+		// a vertex is cached if it was added within the last cacheSize misses
+		int[] addedAt = new int[numVertices];
+		Arrays.fill(addedAt, -cacheSize - 1);
+		int misses = 0;
+		for (int v : triangles) {
+			if (misses - addedAt[v] > cacheSize) {
+				addedAt[v] = misses++;
+			}
+		}
+		return misses / (float) (triangles.length / 3);
+	}
+
+	/*
+	 * Greedy Forsyth ordering of the triangles in [start, end), written to the same range of ordered.
+	 */
+	private static void orderTriangles(int[] triangles, int start, int end, int numVertices, int[] ordered) {
+		int numTriangles = (end - start) / 3;
+		if (numTriangles == 0) {
+			return;
+		}
+		
+		// triangles per vertex, only the vertices of this range are touched
+		int[] valence = new int[numVertices];
+		for (int i = start; i < end; i++) {
+			valence[triangles[i]]++;
+		}
+		int[] adjacencyOffsets = new int[numVertices + 1];
+		for (int v = 0; v < numVertices; v++) {
+			adjacencyOffsets[v + 1] = adjacencyOffsets[v] + valence[v];
+		}
+		int[] adjacency = new int[end - start];
+		int[] fill = Arrays.copyOf(adjacencyOffsets, numVertices);
+		for (int i = start; i < end; i++) {
+			adjacency[fill[triangles[i]]++] = (i - start) / 3;
+		}
+		
+		int[] cachePosition = new int[numVertices];
+		Arrays.fill(cachePosition, -1);
+		float[] vertexScore = new float[numVertices];
+		for (int i = start; i < end; i++) {
+			int v = triangles[i];
+			vertexScore[v] = score(cachePosition[v], valence[v]);
+		}
+		
+		float[] triangleScore = new float[numTriangles];
+		boolean[] added = new boolean[numTriangles];
+		for (int f = 0; f < numTriangles; f++) {
+			int i = start + f * 3;
+			triangleScore[f] = vertexScore[triangles[i]] + vertexScore[triangles[i + 1]] + vertexScore[triangles[i + 2]];
+		}
+		
+		int[] cache = new int[CACHE_SIZE + 3];
+		int cacheCount = 0;
+		int[] newCache = new int[CACHE_SIZE + 3];
+		int scan = 0;
+		int best = bestTriangle(triangleScore);
+		
+		for (int n = 0; n < numTriangles; n++) {
+			if (best == -1) {
+				// nothing in the cache is connected to a remaining triangle, continue with the next one in order
+				while (added[scan]) {
+					scan++;
+				}
+				best = scan;
+			}
+			
+			added[best] = true;
+			int i = start + best * 3;
+			System.arraycopy(triangles, i, ordered, start + n * 3, 3);
+			
+			// move the vertices of the triangle to the front of the cache
+			int newCount = 0;
+			for (int k = 0; k < 3; k++) {
+				int v = triangles[i + k];
+				removeTriangle(adjacency, adjacencyOffsets[v], valence[v]--, best);
+				if (k == 0 || (k == 1 && v != triangles[i]) || (k == 2 && v != triangles[i] && v != triangles[i + 1])) {
+					newCache[newCount++] = v;
+				}
+			}
+			for (int k = 0; k < cacheCount; k++) {
+				int v = cache[k];
+				if (v != triangles[i] && v != triangles[i + 1] && v != triangles[i + 2]) {
+					newCache[newCount++] = v;
+				}
+			}
+			int[] swap = cache;
+			cache = newCache;
+			newCache = swap;
+			cacheCount = newCount;
+			
+			// rescore the cached vertices and the remaining triangles using them
+			for (int k = 0; k < cacheCount; k++) {
+				int v = cache[k];
+				cachePosition[v] = k < CACHE_SIZE ? k : -1;
+				vertexScore[v] = score(cachePosition[v], valence[v]);
+			}
+			best = -1;
+			float bestScore = -1;
+			for (int k = 0; k < cacheCount; k++) {
+				int v = cache[k];
+				for (int a = adjacencyOffsets[v]; a < adjacencyOffsets[v] + valence[v]; a++) {
+					int f = adjacency[a];
+					int j = start + f * 3;
+					triangleScore[f] = vertexScore[triangles[j]] + vertexScore[triangles[j + 1]] + vertexScore[triangles[j + 2]];
+					if (triangleScore[f] > bestScore) {
+						bestScore = triangleScore[f];
+						best = f;
+					}
+				}
+			}
+			cacheCount = Math.min(cacheCount, CACHE_SIZE);
+		}
+	}
+
+	private static int bestTriangle(float[] triangleScore) {
+		int best = -1;
+		float bestScore = -1;
+		for (int f = 0; f < triangleScore.length; f++) {
+			if (triangleScore[f] > bestScore) {
+				bestScore = triangleScore[f];
+				best = f;
+			}
+		}
+		return best;
+	}
+
+	// the first count entries of an adjacency list are the remaining triangles of the vertex
+	private static void removeTriangle(int[] adjacency, int first, int count, int f) {
+		int last = first + count - 1;
+		for (int a = first; a <= last; a++) {
+			if (adjacency[a] == f) {
+				adjacency[a] = adjacency[last];
+				adjacency[last] = f;
+				return;
+			}
+		}
+	}
+
+	private static float score(int cachePosition, int valence) {
+		if (valence == 0) {
+			return -1;
+		}
+		
+		float score = 0;
+		if (cachePosition >= 3) {
+			float scaler = 1.0f / (CACHE_SIZE - 3);
+			score = (float) Math.pow(1.0f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+		} else if (cachePosition >= 0) {
+			// the vertices of the last triangle get a fixed score
+			score = LAST_TRIANGLE_SCORE;
+		}
+		return score + VALENCE_BOOST_SCALE * (float) Math.pow(valence, -VALENCE_BOOST_POWER);
+	}
+}
@@ -0,0 +1,173 @@
+package entities.rbh;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ * BODY 1 tree of a car, stored in flat arrays. Node 0 is the root, the nodes are numbered
+ * in pre-order (a node, its sibling subtree, its child subtree).
+ * An inner node has a sibling and a child, a leaf has neither but a list of indices
+ * (leafIndices[leafOffsets[n] .. leafOffsets[n + 1] - 1]) and an index3.
+ * The four values of a node are used as bounding sphere: center x, y, z and radius.
+ */
+public class BodyTree {
+
+	private int numNodes;
+	private int[] sibling;
+	private int[] child;
+	private float[] values;
+	private int[] index3;
+	private int[] leafOffsets;
+	private int[] leafIndices;
+
+	public BodyTree(int numNodes, int[] sibling, int[] child, float[] values, int[] index3, int[] leafOffsets, int[] leafIndices) {
+		this.numNodes = numNodes;
+		this.sibling = sibling;
+		this.child = child;
+		this.values = values;
+		this.index3 = index3;
+		this.leafOffsets = leafOffsets;
+		this.leafIndices = leafIndices;
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public boolean isLeaf(int node) {
+		return sibling[node] == -1;
+	}
+
+	// -1 for leafs
+	public int getSibling(int node) {
+		return sibling[node];
+	}
+
+	// -1 for leafs
+	public int getChild(int node) {
+		return child[node];
+	}
+
+	public float getValue(int node, int i) {
+		return values[node * 4 + i];
+	}
+
+	// 4 values per node
+	public float[] getValues() {
+		return values;
+	}
+
+	public int getIndex3(int node) {
+		return index3[node];
+	}
+
+	public int getLeafStart(int node) {
+		return leafOffsets[node];
+	}
+
+	public int getLeafEnd(int node) {
+		return leafOffsets[node + 1];
+	}
+
+	public int[] getLeafIndices() {
+		return leafIndices;
+	}
+
+	// leafs whose bounding sphere intersects the sphere
+	public int[] querySphere(float x, float y, float z, float radius) {
+		return query(x, y, z, radius, x, y, z, true);
+	}
+
+	// leafs whose bounding sphere intersects the axis aligned box
+	public int[] queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+		return query(minX, minY, minZ, 0, maxX, maxY, maxZ, false);
+	}
+
+	private int[] query(float minX, float minY, float minZ, float radius, float maxX, float maxY, float maxZ, boolean sphere) {
+		int[] result = new int[8];
+		int count = 0;
+		if (numNodes == 0) {
+			return result;
+		}
+		
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			
+			// squared distance from the node center to the box (a point for sphere queries)
+			float d = 0;
+			for (int i = 0; i < 3; i++) {
+				float c = values[node * 4 + i];
+				float min = i == 0 ? minX : i == 1 ? minY : minZ;
+				float max = i == 0 ? maxX : i == 1 ? maxY : maxZ;
+				float e = c < min ? min - c : c > max ? c - max : 0;
+				d += e * e;
+			}
+			float r = values[node * 4 + 3] + (sphere ? radius : 0);
+			if (d > r * r) {
+				continue;
+			}
+			
+			if (isLeaf(node)) {
+				if (count == result.length) {
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = node;
+			} else {
+				if (top + 2 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[top++] = child[node];
+				stack[top++] = sibling[node];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (numNodes == 0) {
+			return "";
+		}
+		
+		// negative entries close an inner node, MAX_VALUE separates its sibling and child
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			if (top + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			int node = stack[--top];
+			if (node < 0) {
+				sb.append(" } ");
+				continue;
+			}
+			if (node == Integer.MAX_VALUE) {
+				sb.append(", ");
+				continue;
+			}
+			
+			int v = node * 4;
+			sb.append(String.format(Locale.US, "{ %f, %f, %f, %f, ", values[v], values[v + 1], values[v + 2], values[v + 3]));
+			if (isLeaf(node)) {
+				sb.append(index3[node]).append(", [ ");
+				for (int i = leafOffsets[node]; i < leafOffsets[node + 1]; i++) {
+					sb.append(leafIndices[i]);
+					if (i != leafOffsets[node + 1] - 1) {
+						sb.append(", ");
+					}
+				}
+				sb.append(" ] } ");
+			} else {
+				stack[top++] = -node - 1;
+				stack[top++] = child[node];
+				stack[top++] = Integer.MAX_VALUE; // separator
+				stack[top++] = sibling[node];
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -10,7 +10,7 @@ public class RBH {
 	private ArrayList<Model> models = new ArrayList<Model>();
 	
 	private int[] bodyChunkSize;
-	private BodyNode root;
+	private BodyTree bodyTree;
 	private Vertex[] verts;
 	private Vertex[] normals;
 	private int numLods;
@@ -18,10 +18,6 @@ public class RBH {
 	private int numWheels;
 	private String name;
 	
-	private int[][] modelOffset;
-	private int[][] wheelOffset;
-	private Vertex[][] wheelPosition;
-	
 	private int[] textureOffset;
 	private int[] textureOffsetSpecial;
 	private int[] materialIds;
@@ -36,8 +32,12 @@ public class RBH {
 		this.bodyChunkSize = bodyChunkSize;
 	}
 
-	public void setRootNode(BodyNode root) {
-		this.root = root;
+	public void setBodyTree(BodyTree bodyTree) {
+		this.bodyTree = bodyTree;
+	}
+
+	public BodyTree getBodyTree() {
+		return bodyTree;
 	}
 
 	public void setVerts(Vertex[] verts) {
@@ -76,30 +76,6 @@ public class RBH {
 		return numWheels;
 	}
 
-	public void setModelOffset(int[][] modelOffset) {
-		this.modelOffset = modelOffset;
-	}
-
-	public void setWheelOffset(int[][] wheelOffset) {
-		this.wheelOffset = wheelOffset;
-	}
-
-	public void setWheelPosition(Vertex[][] wheelPosition) {
-		this.wheelPosition = wheelPosition;
-	}
-
-	public int getModelOffset(int lodIndex, int subModelIndex) {
-		return modelOffset[lodIndex][subModelIndex];
-	}
-
-	public int getWheelOffset(int lodIndex, int wheelIndex) {
-		return wheelOffset[lodIndex][wheelIndex];
-	}
-
-	public Vertex getWheelPosition(int lodIndex, int wheelIndex) {
-		return wheelPosition[lodIndex][wheelIndex];
-	}
-
 	public void addModel(Model m) {
 		models.add(m);
 	}
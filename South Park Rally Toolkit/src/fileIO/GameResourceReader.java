@@ -2,26 +2,43 @@ package fileIO;
 
 import java.io.BufferedWriter;
 import java.io.EOFException;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import entities.Bitmap;
 import entities.Sound;
+import entities.rbh.RBHChunkHeader;
 import fileIO.exceptions.GameResourceException;
+import fileIO.png.PngWriter;
 
 public class GameResourceReader {
 	private InputStream stream;
+	private FileChannel channel;
 	private String outputDir;
 	private ByteBuffer buffer;
 	
 	private int soundUnknown;
+	private boolean pngOutput;
 
-	public GameResourceReader(InputStream stream) {
+	public GameResourceReader(FileInputStream stream) {
 		this.stream = stream;
+		this.channel = stream.getChannel();
+	}
+
+	// bitmaps are written as .png instead of .bmp, see PngWriter
+	public void setPngOutput(boolean pngOutput) {
+		this.pngOutput = pngOutput;
 	}
 
 	private ByteBuffer getByteBuffer(int size) throws IOException {
@@ -62,99 +79,150 @@ public class GameResourceReader {
 		}
 	}
 
+	/*
+	 * Two passes: first collect the position of every BODY chunk, then decode and
+	 * write the bitmaps on the fork-join pool. Each task reads its own chunk and drops
+	 * it when written, so memory usage depends on the number of workers, not the VRAM size.
+	 */
 	private void extractBitmapResource(int fileSize) throws IOException {
-		ArrayList<Bitmap> bitmaps = readBitmaps(fileSize);
-		writeBitmapInfoFile(bitmaps);
-		writeBitmaps(bitmaps);
+		List<RBHChunkHeader> chunks = readChunkHeaders(fileSize);
+		
+		List<Callable<String>> tasks = new ArrayList<Callable<String>>(chunks.size());
+		for (RBHChunkHeader chunk : chunks) {
+			tasks.add(() -> {
+				Bitmap bitmap = readBitmap(readChunk(chunk));
+				if (pngOutput) {
+					PngWriter.outputBitmap(bitmap, outputDir);
+					return bitmap.getIndex() + "\t" + bitmap.getNumMipmaps() + "\t" + bitmap.getPaddedIndex() + ".png";
+				}
+				bitmap.writeToFile(outputDir);
+				return bitmap.getIndex() + "\t" + bitmap.getNumMipmaps() + "\t" + bitmap.getPaddedIndex() + ".bmp";
+			});
+		}
+		
+		ArrayList<String> infoLines = new ArrayList<String>(chunks.size());
+		for (Future<String> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+			try {
+				infoLines.add(result.get());
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+		
+		writeBitmapInfoFile(infoLines);
 	}
 
+	private List<RBHChunkHeader> readChunkHeaders(int fileSize) throws IOException {
+		List<RBHChunkHeader> chunks = new ArrayList<RBHChunkHeader>();
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		
+		long position = channel.position();
+		while (fileSize > 0) {
+			header.clear();
+			readFully(header, position);
+			header.getInt(); // BODY
+			int chunkSize = header.getInt();
+			
+			chunks.add(new RBHChunkHeader((int) position, "BODY", chunkSize));
+			
+			position += chunkSize + 8;
+			fileSize -= (chunkSize + 8);
+		}
+		
+		return chunks;
+	}
+
+	// positional read, may be called from several threads
+	private ByteBuffer readChunk(RBHChunkHeader chunk) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(chunk.getSize());
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		readFully(buf, chunk.getPosition());
+		return buf;
+	}
+
+	private void readFully(ByteBuffer buf, long position) throws IOException {
+		while (buf.hasRemaining()) {
+			int n = channel.read(buf, position);
+			if (n < 0) throw new EOFException();
+			position += n;
+		}
+		buf.flip();
+	}
+
+	// the PCM data is copied from the input channel to the .wav files and never held on the heap
 	private void extractSoundResource() throws IOException {
 		ArrayList<Sound> sounds = readSounds();
 		writeSoundInfoFile(sounds);
 		writeSounds(sounds);
 	}
 
-	private ArrayList<Bitmap> readBitmaps(int fileSize) throws IOException {
-		ArrayList<Bitmap> bitmaps = new ArrayList<Bitmap>();
+	private Bitmap readBitmap(ByteBuffer buffer) throws IOException {
+		int headerSize = buffer.getInt();
+		int index = buffer.getInt();
+		int width = buffer.getShort();
+		int height = buffer.getShort();
+		int flags = buffer.getShort();
+		int colorDepth = buffer.getShort();
+		byte[] bitFields = new byte[0x10]; // ARGB
+		buffer.get(bitFields);
+		buffer.getInt(); // imageDataOffset
+		buffer.getInt(); // chunkSize2
+		int numMipmaps = buffer.getInt();
+		// skip 20 bytes
 		
-		while (fileSize > 0) {
-			buffer = getByteBuffer(12);
-			buffer.getInt(); // BODY
-			int chunkSize = buffer.getInt();
-			int headerSize = buffer.getInt();
-			
-			buffer = getByteBuffer(headerSize - 4);
-			int index = buffer.getInt();
-			int width = buffer.getShort();
-			int height = buffer.getShort();
-			int flags = buffer.getShort();
-			int colorDepth = buffer.getShort();
-			byte[] bitFields = new byte[0x10]; // ARGB
-			buffer.get(bitFields);
-			buffer.getInt(); // imageDataOffset
-			buffer.getInt(); // chunkSize2
-			int numMipmaps = buffer.getInt();
-			// skip 20 bytes
-			
-			/*
-			 * flags:
-			 * bit 1	hasNoColortable (16,24,32)
-			 * bit 2	hasTransparency (16,32)
-			 * bit 3	hasColorDepth4
-			 * bit 4	hasColorDepth8
-			 * bit 5	hasNoTransparency (16,32)
-			 * bit 8	hasMipmaps
-			 */
-			
-			fileSize -= (chunkSize + 8);
-			
-			buffer = getByteBuffer(chunkSize - headerSize);
-			
-			byte[] colortable = null;
-			if (colorDepth <= 8) {
-				colortable = new byte[(int) (Math.pow(2,colorDepth) * 4)];
-				buffer.get(colortable);
-			}
-			
-			byte[] pixels = new byte[width * height * colorDepth / 8];
-			buffer.get(pixels);
-			
-			ArrayList<byte[]> mipmaps = new ArrayList<byte[]>(numMipmaps);
-			
-			for (int i = 0; i < numMipmaps; i++) {
-				int div = (int) Math.pow(2, (i + 1));
-				byte[] mipmap = new byte[width/div * height/div * colorDepth / 8];
-				buffer.get(mipmap);
-				mipmaps.add(mipmap);
-			}
-			
-			bitmaps.add(new Bitmap(Bitmap.Type.VRAM_BITMAP, index, width, height, flags, colorDepth, bitFields, colortable, pixels, mipmaps));
+		/*
+		 * flags:
+		 * bit 1	hasNoColortable (16,24,32)
+		 * bit 2	hasTransparency (16,32)
+		 * bit 3	hasColorDepth4
+		 * bit 4	hasColorDepth8
+		 * bit 5	hasNoTransparency (16,32)
+		 * bit 8	hasMipmaps
+		 */
+		
+		buffer.position(headerSize);
+		
+		byte[] colortable = null;
+		if (colorDepth <= 8) {
+			colortable = new byte[(1 << colorDepth) * 4];
+			buffer.get(colortable);
+		}
+		
+		byte[] pixels = new byte[width * height * colorDepth / 8];
+		buffer.get(pixels);
+		
+		ArrayList<byte[]> mipmaps = new ArrayList<byte[]>(numMipmaps);
+		
+		for (int i = 0; i < numMipmaps; i++) {
+			byte[] mipmap = new byte[(width >> (i + 1)) * (height >> (i + 1)) * colorDepth / 8];
+			buffer.get(mipmap);
+			mipmaps.add(mipmap);
 		}
 		
-		return bitmaps;
+		return new Bitmap(Bitmap.Type.VRAM_BITMAP, index, width, height, flags, colorDepth, bitFields, colortable, pixels, mipmaps);
 	}
 
-	private void writeBitmapInfoFile(ArrayList<Bitmap> bitmaps) throws IOException {
+	private void writeBitmapInfoFile(ArrayList<String> infoLines) throws IOException {
 		BufferedWriter writer = new BufferedWriter(new FileWriter(outputDir + "VRAM.txt"));
 		writer.write("VRAM");
 		writer.newLine();
-		writer.write("" + bitmaps.size());
+		writer.write("" + infoLines.size());
 		writer.newLine();
 		
-		for (Bitmap bitmap : bitmaps) {
-			writer.write(bitmap.getIndex() + "\t" + bitmap.getNumMipmaps() + "\t" + bitmap.getPaddedIndex() + ".bmp");
+		for (String line : infoLines) {
+			writer.write(line);
 			writer.newLine();
 		}
 		writer.close();
 	}
 
-	private void writeBitmaps(ArrayList<Bitmap> bitmaps) throws IOException {
-		for (Bitmap bitmap : bitmaps) {
-			
-			bitmap.writeToFile(outputDir);
-		}
-	}
-
 	private void extractGenericResource() throws IOException {
 		buffer = getByteBuffer(8);
 		buffer.getInt(); // RBHH
@@ -212,11 +280,11 @@ public class GameResourceReader {
 		buffer.getShort(); // 01 00
 		buffer.getShort(); // 01 00
 		
+		long position = channel.position();
+		
 		for (Sound sound : sounds) {
 			int size = sound.getSize();
-			byte[] data = new byte[size];
-			stream.read(data);
-			sound.setData(data);
+			sound.setDataPosition(position);
 			
 			// DEBUG:
 			//dataBlockSize += size;
@@ -226,10 +294,10 @@ public class GameResourceReader {
 			// DEBUG END
 			
 			int padding = (16 - (size % 16)) % 16;
-			stream.skip(padding);
+			position += size + padding;
 		}
 		
-		stream.skip(12); // GLOB, chunkSize, numSounds
+		channel.position(position + 12); // GLOB, chunkSize, numSounds
 		
 		buffer = getByteBuffer(4 + numSounds * 8);
 		
@@ -266,7 +334,7 @@ public class GameResourceReader {
 
 	private void writeSounds(ArrayList<Sound> sounds) throws IOException {
 		for (Sound sound : sounds) {
-			sound.writeToFile(outputDir);
+			sound.writeToFile(outputDir, channel);
 		}
 	}
 }
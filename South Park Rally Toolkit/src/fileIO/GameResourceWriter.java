@@ -1,12 +1,10 @@
 package fileIO;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -17,6 +15,8 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
 
 import entities.Bitmap;
 import entities.Sound;
@@ -26,10 +26,15 @@ import fileIO.exceptions.WavReadException;
 
 public class GameResourceWriter {
 	
+	private static final Pattern MIPMAP_FILE = Pattern.compile(".*\\.MIPMAP\\d+\\.BMP");
+	
+	private static Scanner console;
+	
 	private int index = 1;
 	private String inputFolderName;
 	private int soundUnknown;
 	private List<Bitmap> bitmapList = new ArrayList<Bitmap>();
+	private List<File> bitmapFiles = new ArrayList<File>();
 	private List<Sound> soundList = new ArrayList<Sound>();
 
 	public void createGameResource(String inputFolderName) throws GameResourceException {
@@ -45,6 +50,9 @@ public class GameResourceWriter {
 		}
 		
 		File infoFile = new File(inputFolderName + "\\" + "Info.txt");
+		if (!infoFile.exists()) {
+			infoFile = new File(inputFolderName + "\\" + "VRAM.txt");
+		}
 		if (infoFile.exists()) {
 			try {
 				readInfoFile(infoFile);
@@ -60,14 +68,15 @@ public class GameResourceWriter {
 			
 			for (File f : files) {
 				String name = f.getName().toUpperCase();
-				if ((name.length() > 4) && (name.endsWith(".BMP"))) {
+				if ((name.length() > 4) && (name.endsWith(".BMP")) && !MIPMAP_FILE.matcher(name).matches()) {
 					Bitmap b;
 					try {
 						b = readBitmap(f);
+						b.setNumMipmaps(countMipmapFiles(f));
 						bitmapList.add(b);
+						bitmapFiles.add(f);
 					} catch (BmpReadException e) {
-						System.err.println(e.getMessage());
-						System.exit(1);
+						throw new GameResourceException(e.getMessage());
 					}
 				}
 			}
@@ -75,6 +84,7 @@ public class GameResourceWriter {
 		
 		if (bitmapList.size() != 0) {
 			try {
+				readMipmaps();
 				writeVram();
 			} catch (IOException e) {
 				throw new GameResourceException(e.getMessage());
@@ -163,12 +173,54 @@ public class GameResourceWriter {
 				b.setIndex(bitmap.getIndex());
 				b.setNumMipmaps(bitmap.getNumMipmaps());
 				bitmapList.add(b);
+				bitmapFiles.add(file);
 			} catch (BmpReadException e) {
 				System.err.println(e.getMessage());
 			}
 		}	
 	}
 
+	/*
+	 * Uses the .mipmapN.bmp files of every bitmap (as written by Bitmap.writeToFile) and
+	 * generates the levels that are missing or do not match, the bitmaps are processed in parallel.
+	 */
+	private void readMipmaps() {
+		IntStream.range(0, bitmapList.size()).parallel().forEach(i -> {
+			Bitmap bitmap = bitmapList.get(i);
+			int numMipmaps = bitmap.getNumMipmaps();
+			
+			for (int level = 1; level <= numMipmaps; level++) {
+				File file = getMipmapFile(bitmapFiles.get(i), level);
+				if (!file.exists()) {
+					break;
+				}
+				try {
+					if (!bitmap.addMipmap(readBitmap(file, bitmap.getIndex(), false))) {
+						System.err.println("Mipmap does not match its bitmap: " + file.getName());
+						break;
+					}
+				} catch (BmpReadException e) {
+					System.err.println(e.getMessage());
+					break;
+				}
+			}
+			bitmap.generateMipmaps(numMipmaps);
+		});
+	}
+
+	private static File getMipmapFile(File bitmapFile, int level) {
+		String path = bitmapFile.getPath();
+		return new File(path.substring(0, path.length() - 4) + ".mipmap" + level + ".bmp");
+	}
+
+	private static int countMipmapFiles(File bitmapFile) {
+		int numMipmaps = 0;
+		while (getMipmapFile(bitmapFile, numMipmaps + 1).exists()) {
+			numMipmaps++;
+		}
+		return numMipmaps;
+	}
+
 	private void writeSoundRbh() throws IOException {
 		String rbhFilename = inputFolderName;
 		String extension = ".RBH.OUTPUT";
@@ -178,35 +230,49 @@ public class GameResourceWriter {
 		rbhFilename += ".rbh";
 		
 		File f = new File(rbhFilename);
-		if (f.exists()) {
-			System.out.print("File aready exists!\nDo you want to overwrite it? (Y)ES / (N)O: ");
-			Scanner sc = new Scanner(System.in);
-			String answer = sc.next().toUpperCase();
-			sc.close();
-			if (answer.charAt(0) != 'Y') {
-				return;
-			}
+		if (f.exists() && !confirmOverwrite()) {
+			return;
 		}
 		
 		//int actualHeaderSize = 0x34 + soundList.size() * 0x28 + 0x10;
 		
-		ByteBuffer headerBlock = ByteBuffer.allocate(soundList.size() * 0x28 + 8);
-		headerBlock.order(ByteOrder.LITTLE_ENDIAN);
-		headerBlock.put("BODY".getBytes());
-		headerBlock.putInt(soundList.size() * 0x28);
+		PiffWriter writer = new PiffWriter(f, "RBHF");
 		
-		ByteArrayOutputStream dataBlock = new ByteArrayOutputStream();
+		writer.beginChunk("RBHH");
+		writer.writeInt(0);
+		writer.writeInt(soundList.size() * 0x28);
+		writer.writeShort((short) 2);
+		writer.writeShort((short) 4);
+		writer.writeInt(0);
+		long dataSizePosition = writer.position();
+		writer.writeInt(0); // patched when the data is written
+		writer.writeShort((short) 0);
+		writer.writeShort((short) 4);
+		writer.endChunk();
+		
+		// the data of every sound starts at a multiple of 16
+		writer.beginChunk("BODY");
+		int dataOffset = 0;
+		for (Sound sound : soundList) {
+			int length = sound.getData().length;
+			writer.write(sound.getRbhHeader(length, dataOffset));
+			dataOffset += (length + 15) & ~15;
+		}
+		writer.endChunk();
+		
+		writer.beginChunk("BODY");
+		long dataStart = writer.position();
+		writer.writeInt(0);
+		writer.writeShort((short) 1);
+		writer.writeShort((short) 1);
 		
 		for (Sound sound : soundList) {
 			byte[] data = sound.getData();
-			
-			headerBlock.put(sound.getRbhHeader(data.length, dataBlock.size()));
-			dataBlock.write(data);
+			writer.write(data);
 			
 			int remainder = data.length % 16;
 			if (remainder != 0) {
-				byte[] b = new byte[16 - remainder];
-				dataBlock.write(b);
+				writer.pad(16 - remainder);
 			}
 			
 			/* WRONG:
@@ -218,51 +284,19 @@ public class GameResourceWriter {
 			}
 			*/
 		}
+		writer.patchInt(dataSizePosition, (int) (writer.position() - dataStart));
+		writer.endChunk();
 		
-		ByteBuffer dataBlockHeader = ByteBuffer.allocate(16);
-		dataBlockHeader.order(ByteOrder.LITTLE_ENDIAN);
-		dataBlockHeader.put("BODY".getBytes());
-		dataBlockHeader.putInt(dataBlock.size() + 8);
-		dataBlockHeader.putInt(0);
-		dataBlockHeader.putShort((short) 1);
-		dataBlockHeader.putShort((short) 1);
-		
-		ByteBuffer globBlock = ByteBuffer.allocate(soundList.size() * 8 + 16);
-		globBlock.order(ByteOrder.LITTLE_ENDIAN);
-		globBlock.put("GLOB".getBytes());
-		globBlock.putInt(soundList.size() * 8 + 8);
-		globBlock.putInt(soundList.size());
-		globBlock.putInt(soundUnknown);
+		writer.beginChunk("GLOB");
+		writer.writeInt(soundList.size());
+		writer.writeInt(soundUnknown);
 		for (Sound sound : soundList) {
-			globBlock.putInt(sound.getValue1());
-			globBlock.putInt(sound.getValue2());
+			writer.writeInt(sound.getValue1());
+			writer.writeInt(sound.getValue2());
 		}
+		writer.endChunk();
 		
-		int chunkSize = 0x24 + headerBlock.capacity() + dataBlockHeader.capacity()
-			+ dataBlock.size() + globBlock.capacity();
-		ByteBuffer rbhHeader = ByteBuffer.allocate(0x2C);
-		rbhHeader.order(ByteOrder.LITTLE_ENDIAN);
-		rbhHeader.put("PIFF".getBytes());
-		rbhHeader.putInt(chunkSize);
-		rbhHeader.put("RBHF".getBytes());
-		rbhHeader.put("RBHH".getBytes());
-		rbhHeader.putInt(0x18);
-		rbhHeader.putInt(0);
-		rbhHeader.putInt(soundList.size() * 0x28);
-		rbhHeader.putShort((short) 2);
-		rbhHeader.putShort((short) 4);
-		rbhHeader.putInt(0);
-		rbhHeader.putInt(dataBlock.size() + 8);
-		rbhHeader.putShort((short) 0);
-		rbhHeader.putShort((short) 4);
-		
-		FileOutputStream stream = new FileOutputStream(rbhFilename);
-		stream.write(rbhHeader.array());
-		stream.write(headerBlock.array());
-		stream.write(dataBlockHeader.array());
-		stream.write(dataBlock.toByteArray());
-		stream.write(globBlock.array());
-		stream.close();
+		writer.close();
 	}
 
 	private void writeVram() throws IOException {
@@ -275,39 +309,33 @@ public class GameResourceWriter {
 		vramFilename += ".vram";
 		
 		File f = new File(vramFilename);
-		if (f.exists()) {
-			System.out.print("File aready exists!\nDo you want to overwrite it? (Y)ES / (N)O: ");
-			Scanner sc = new Scanner(System.in);
-			String answer = sc.next().toUpperCase();
-			sc.close();
-			if (answer.charAt(0) != 'Y') {
-				return;
-			}
+		if (f.exists() && !confirmOverwrite()) {
+			return;
 		}
 		
-		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		PiffWriter writer = new PiffWriter(f, "VVTP");
 		
 		for (Bitmap bitmap : bitmapList) {
-			outputStream.write(bitmap.getVramHeader());
+			writer.write(bitmap.getVramHeader());
 			if (bitmap.hasColortable()) {
-				outputStream.write(bitmap.getColortable());
+				writer.write(bitmap.getColortable());
+			}
+			for (int level = 0; level <= bitmap.getMipmaps().size(); level++) {
+				writer.write(bitmap.getFlippedRows(level));
 			}
-			outputStream.write(bitmap.getPixels());
 		}
 		
-		int fileSize = outputStream.size() + 4;
-		byte[] size = new byte[4];
-		size[0] = (byte) ((fileSize & 0x000000FF));
-		size[1] = (byte) ((fileSize & 0x0000FF00) >> 8);
-		size[2] = (byte) ((fileSize & 0x00FF0000) >> 16);
-		size[3] = (byte) ((fileSize & 0xFF000000) >> 24);
-		
-		FileOutputStream stream = new FileOutputStream(vramFilename);
-		stream.write("PIFF".getBytes());
-		stream.write(size);
-		stream.write("VVTP".getBytes());
-		stream.write(outputStream.toByteArray());
-		stream.close();
+		writer.close();
+	}
+
+	// several resources may be created at the same time, only one of them may ask at a time
+	private static synchronized boolean confirmOverwrite() {
+		System.out.print("File aready exists!\nDo you want to overwrite it? (Y)ES / (N)O: ");
+		if (console == null) {
+			console = new Scanner(System.in);
+		}
+		String answer = console.next().toUpperCase();
+		return answer.charAt(0) == 'Y';
 	}
 
 	private ByteBuffer getByteBuffer(InputStream stream, int size) throws IOException {
@@ -368,6 +396,11 @@ public class GameResourceWriter {
 	}
 
 	private Bitmap readBitmap(File file) throws BmpReadException {
+		return readBitmap(file, index++, true);
+	}
+
+	// mipmap files are written without row padding, so checkLineWidth is false for them
+	private Bitmap readBitmap(File file, int index, boolean checkLineWidth) throws BmpReadException {
 		int width;
 		int height;
 		int flags = -1;
@@ -397,7 +430,7 @@ public class GameResourceWriter {
 			colorDepth = buffer.getShort();
 			
 			int lineWidth = width * colorDepth / 8;
-			if (lineWidth % 4 != 0) {
+			if (checkLineWidth && lineWidth % 4 != 0) {
 				throw new BmpReadException("Invalid Bitmap width!");
 			}
 			int compression = buffer.getInt();
@@ -418,7 +451,7 @@ public class GameResourceWriter {
 			
 			colortable = null;
 			if (colorDepth <= 8) {
-				colortable = new byte[(int) (Math.pow(2,colorDepth) * 4)];
+				colortable = new byte[(1 << colorDepth) * 4];
 				
 				if (numColors == 0) {
 					stream.read(colortable);
@@ -440,6 +473,6 @@ public class GameResourceWriter {
 			throw new BmpReadException("Could not read from bitmap: " + file.getName());
 		}
 		
-		return(new Bitmap(Bitmap.Type.MS_BITMAP, index++, width, height, flags, colorDepth, bitFields, colortable, pixels, new ArrayList<byte[]>()));
+		return(new Bitmap(Bitmap.Type.MS_BITMAP, index, width, height, flags, colorDepth, bitFields, colortable, pixels, new ArrayList<byte[]>()));
 	}
 }
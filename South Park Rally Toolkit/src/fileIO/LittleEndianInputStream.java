@@ -4,19 +4,44 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public class LittleEndianInputStream {
 
 	private RandomAccessFile stream;
 
+	// memory-mapped view of the whole file, null if the file could not be mapped
+	private ByteBuffer mapped;
+
 	public LittleEndianInputStream(String filename) throws IOException {
-		this.stream = new RandomAccessFile(filename, "r");
+		this(new File(filename));
 	}
 
 	public LittleEndianInputStream(File file) throws IOException {
 		this.stream = new RandomAccessFile(file, "r");
+		this.mapped = map(stream);
+	}
+
+	private static ByteBuffer map(RandomAccessFile file) {
+		try {
+			long length = file.length();
+			if (length == 0 || length > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer buf = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			return buf;
+		} catch (IOException | UnsupportedOperationException e) {
+			// e.g. special files or platforms without mmap support -> use RandomAccessFile reads
+			return null;
+		}
+	}
+
+	public boolean isMapped() {
+		return mapped != null;
 	}
 
 	private ByteBuffer getByteBuffer(int size) throws IOException {
@@ -27,83 +52,270 @@ public class LittleEndianInputStream {
 	}
 
 	public int readInt() throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getInt();
+			} catch (BufferUnderflowException e) {
+				throw new EOFException();
+			}
+		}
 		return getByteBuffer(4).getInt();
 	}
 
 	public short readShort() throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getShort();
+			} catch (BufferUnderflowException e) {
+				throw new EOFException();
+			}
+		}
 		return getByteBuffer(2).getShort();
 	}
 
 	public byte readByte() throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.get();
+			} catch (BufferUnderflowException e) {
+				throw new EOFException();
+			}
+		}
 		return getByteBuffer(1).get();
 	}
 
 	public int readUnsignedByte() throws IOException {
-		return getByteBuffer(1).get() & 0xFF;
+		return readByte() & 0xFF;
 	}
 
 	public float readFloat() throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getFloat();
+			} catch (BufferUnderflowException e) {
+				throw new EOFException();
+			}
+		}
 		return getByteBuffer(4).getFloat();
 	}
 
+	// absolute reads, the current position is not changed
+
+	public int readInt(int position) throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getInt(position);
+			} catch (IndexOutOfBoundsException e) {
+				throw new EOFException();
+			}
+		}
+		long pointer = stream.getFilePointer();
+		stream.seek(position);
+		int value = readInt();
+		stream.seek(pointer);
+		return value;
+	}
+
+	public short readShort(int position) throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getShort(position);
+			} catch (IndexOutOfBoundsException e) {
+				throw new EOFException();
+			}
+		}
+		long pointer = stream.getFilePointer();
+		stream.seek(position);
+		short value = readShort();
+		stream.seek(pointer);
+		return value;
+	}
+
+	public float readFloat(int position) throws IOException {
+		if (mapped != null) {
+			try {
+				return mapped.getFloat(position);
+			} catch (IndexOutOfBoundsException e) {
+				throw new EOFException();
+			}
+		}
+		long pointer = stream.getFilePointer();
+		stream.seek(position);
+		float value = readFloat();
+		stream.seek(pointer);
+		return value;
+	}
+
+	/*
+	 * Bulk reads: decode a block of fixed-size records in one pass.
+	 * stride is the record size in bytes, of which the first fieldsPerRecord
+	 * values are stored consecutively in dst, the rest of the record is skipped.
+	 */
+
+	public void readFloats(float[] dst, int count, int stride, int fieldsPerRecord) throws IOException {
+		ByteBuffer buf = getBlock(count * stride);
+		int start = buf.position();
+		
+		if (stride == fieldsPerRecord * 4) {
+			buf.asFloatBuffer().get(dst, 0, count * fieldsPerRecord);
+		} else {
+			int d = 0;
+			for (int r = 0; r < count; r++) {
+				int p = start + r * stride;
+				for (int f = 0; f < fieldsPerRecord; f++) {
+					dst[d++] = buf.getFloat(p + f * 4);
+				}
+			}
+		}
+		buf.position(start + count * stride);
+	}
+
+	public void readFloats(float[] dst) throws IOException {
+		readFloats(dst, dst.length, 4, 1);
+	}
+
+	public void readShorts(int[] dst, int count, int stride, int fieldsPerRecord) throws IOException {
+		ByteBuffer buf = getBlock(count * stride);
+		int start = buf.position();
+		
+		int d = 0;
+		for (int r = 0; r < count; r++) {
+			int p = start + r * stride;
+			for (int f = 0; f < fieldsPerRecord; f++) {
+				dst[d++] = buf.getShort(p + f * 2);
+			}
+		}
+		buf.position(start + count * stride);
+	}
+
+	public void readShorts(int[] dst) throws IOException {
+		readShorts(dst, dst.length, 2, 1);
+	}
+
+	public void readInts(int[] dst) throws IOException {
+		ByteBuffer buf = getBlock(dst.length * 4);
+		int start = buf.position();
+		buf.asIntBuffer().get(dst);
+		buf.position(start + dst.length * 4);
+	}
+
+	public void skipRecords(int count, int stride) throws IOException {
+		skip(count * stride);
+	}
+
+	// returns a little-endian buffer positioned at the next size bytes
+	private ByteBuffer getBlock(int size) throws IOException {
+		if (mapped != null) {
+			if (mapped.remaining() < size) {
+				throw new EOFException();
+			}
+			return mapped;
+		}
+		return getByteBuffer(size);
+	}
+
 	public byte[] readBytes(int n) throws IOException {
 		byte[] buffer = new byte[n];
-		stream.read(buffer);
+		if (mapped != null) {
+			mapped.get(buffer, 0, Math.min(n, mapped.remaining()));
+		} else {
+			stream.read(buffer);
+		}
 		return buffer;
 	}
 
 	// South Park Rally 0-terminated string with padding
 	public String readString() throws IOException {
-		String s = "";
+		StringBuilder s = new StringBuilder();
 		
 		while (true) {
-			byte b = stream.readByte();
+			byte b = readByte();
 			if (b == 0) break;
-			s += (char) b;
+			s.append((char) b);
 		}
 		
-		stream.skipBytes((4 - (s.length() + 1) % 4) % 4);
+		skip((4 - (s.length() + 1) % 4) % 4);
 		
-		return s;
+		return s.toString();
 	}
 
 	public String readString(int n) throws IOException {
-		String s = "";
+		StringBuilder s = new StringBuilder();
 		
-		if (n == 0) return s;
+		if (n == 0) return "";
 		
 		byte[] buffer = readBytes(n);
 		
 		for (int i = 0; i < n; i++) {
 			if (buffer[i] == 0) {
-				return s;
+				break;
 			}
-			s += (char)(buffer[i] & 0xFF);
+			s.append((char)(buffer[i] & 0xFF));
 		}
-		return s;
+		return s.toString();
 	}
 
 	public void skip(int n) throws IOException {
-		stream.seek(stream.getFilePointer() + n);
+		seek(getPosition() + n);
 	}
 
 	public void seek(int position) throws IOException {
-		stream.seek(position);
+		if (mapped != null) {
+			if (position < 0 || position > mapped.limit()) {
+				throw new EOFException();
+			}
+			mapped.position(position);
+		} else {
+			stream.seek(position);
+		}
 	}
 
 	public int getPosition() throws IOException {
+		if (mapped != null) {
+			return mapped.position();
+		}
 		return (int) stream.getFilePointer();
 	}
 
+	public int length() throws IOException {
+		if (mapped != null) {
+			return mapped.capacity();
+		}
+		return (int) stream.length();
+	}
+
 	public boolean eof() throws IOException {
-		return stream.getFilePointer() == stream.length();
+		return getPosition() == length();
 	}
 
 	public String readLine() throws IOException {
-		return stream.readLine();
+		if (mapped == null) {
+			return stream.readLine();
+		}
+		
+		if (!mapped.hasRemaining()) {
+			return null;
+		}
+		
+		StringBuilder s = new StringBuilder();
+		while (mapped.hasRemaining()) {
+			int c = mapped.get() & 0xFF;
+			if (c == '\n') {
+				break;
+			}
+			if (c == '\r') {
+				if (mapped.hasRemaining() && mapped.get(mapped.position()) == '\n') {
+					mapped.get();
+				}
+				break;
+			}
+			s.append((char) c);
+		}
+		return s.toString();
 	}
 
 	public void close() throws IOException {
+		mapped = null;
 		stream.close();
 	}
 }
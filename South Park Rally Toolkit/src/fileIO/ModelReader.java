@@ -1,33 +1,67 @@
 package fileIO;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.stream.IntStream;
 
-import entities.model.Face;
+import entities.model.MaterialBatcher;
+import entities.model.MeshInstances;
+import entities.model.MeshWelder;
 import entities.model.Model;
-import entities.model.Normal;
-import entities.model.TexCoord;
-import entities.model.Vertex;
-import entities.rbh.BodyNode;
+import entities.model.SpatialGrid;
+import entities.model.Triangulator;
+import entities.model.VertexCacheOptimizer;
 import entities.rbh.RBH;
-import entities.rbh.RBHChunkHeader;
+import fileIO.gltf.GlbWriter;
 import fileIO.obj.ObjWriter;
 import logger.Logger;
 import logger.Logger.Level;
 
 public class ModelReader {
 
-	private LittleEndianInputStream stream;
 	private Logger logger;
 	private RBH rbh;
+	private float uvEpsilon;
+	private boolean optimizeVertexCache;
+	private int[] lods;
+	private boolean mergeMaterials;
+	private float gridCellSize;
 
 	public ModelReader() {
 		logger = new Logger();
 		logger.setLevel(Level.DEBUG);
 	}
 
+	// texture coordinates closer than uvEpsilon are merged, 0 merges identical ones only
+	public void setUvEpsilon(float uvEpsilon) {
+		this.uvEpsilon = uvEpsilon;
+	}
+
+	// reorder triangles and vertices for the post-transform vertex cache, see VertexCacheOptimizer
+	public void setOptimizeVertexCache(boolean optimizeVertexCache) {
+		this.optimizeVertexCache = optimizeVertexCache;
+	}
+
+	// only the given LODs of a car are read, null reads all of them
+	public void setLods(int[] lods) {
+		this.lods = lods;
+	}
+
+	// export one model per LOD (one for a map) with a single batch of triangles per material
+	public void setMergeMaterials(boolean mergeMaterials) {
+		this.mergeMaterials = mergeMaterials;
+	}
+
+	// maps are additionally written as grid of cells with this size (see SpatialGrid), 0 disables it
+	public void setGridCellSize(float gridCellSize) {
+		this.gridCellSize = gridCellSize;
+	}
+
 	public String extractModel(File file) {
 		
 		String filename = file.getName();
@@ -48,59 +82,55 @@ public class ModelReader {
 		rbh.setOutputDir(outputDir);
 		
 		try {
-			stream = new LittleEndianInputStream(file);
+			RbhArchive archive = new RbhArchive(file, logger);
 			
-			int[] bodyChunkSize = readRbhh();
+			rbh.setBodyChunkSize(archive.getBodyChunkSize());
 			
-			if (bodyChunkSize[0] == 0) {
+			if (archive.isMap()) {
 				
 				rbh.setIsMap(true);
 				
-				for (int i = 0; i < 5; i++) {
-		            this.stream.skip(8 + bodyChunkSize[i]);
-		        }
-				
-				stream.skip(8); // BODY, size
-				int endOffset = stream.getPosition() + bodyChunkSize[5];
-				
-				int index = 0;
-				while (stream.getPosition() != endOffset) {
-					System.out.println("model index: " + index++);
-					Model model = readModel(stream.getPosition());
+				for (Model model : archive.getMapModels()) {
 					rbh.addModel(model);
 				}
+				System.out.println("models: " + rbh.getModels().size());
 				
 				// BODY3 contains WAVE files in sewer.rbh
 				// in city2.rbh there are no additional WAVE files
 				
-				readNormals();
-				readVertices();
-				
-				if (bodyChunkSize.length == 12) {
-					readWaterTextureNames();
-				}
-				
-				readTextureOffsets();
-				readMaterialIds();
+				archive.getWaterTextureNames();
 				
 			} else {
-				readBodyNodes();
-				readBodyVertices();
-				readBodyNormals();
-				readExtraInfoHeader();
-				readExtraInfo();
-				readSubModels();
-				readNormals();
-				readVertices();
-				readTextureOffsets();
-				readMaterialIds();
+				rbh.setBodyTree(archive.getBodyTree());
+				rbh.setVerts(archive.getBodyVertices());
+				rbh.setNormals(archive.getBodyNormals());
+				readHeader(archive);
+				
+				// the models, normals and vertices of other LODs are never read
+				for (Model model : archive.getCarModels(lods)) {
+					rbh.addModel(model);
+				}
 			}
 			
-			stream.close();
+			rbh.setTextureOffset(archive.getTextureOffsets());
+			rbh.setTextureOffsetSpecial(archive.getTextureOffsetsSpecial());
+			rbh.setMaterialIds(archive.getMaterialIds());
+			
+			archive.close();
+			
+			processModels();
+			
+			if (mergeMaterials) {
+				mergeModels();
+			}
 			
 			ObjWriter.outputMaterialsFile(rbh);
-			ObjWriter.outputSingleModels(rbh);
 			ObjWriter.outputModels(rbh);
+			GlbWriter.outputModels(rbh);
+			
+			if (rbh.isMap() && gridCellSize > 0) {
+				ObjWriter.outputGrid(rbh, new SpatialGrid(rbh.getModels(), gridCellSize));
+			}
 		
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -112,411 +142,114 @@ public class ModelReader {
 		return "done!";
 	}
 
-	private RBHChunkHeader readChunkHeader() throws IOException {
-		return new RBHChunkHeader(stream.getPosition(), stream.readString(4), stream.readInt());
-	}
-
-	private int[] readRbhh() throws IOException {
-		stream.skip(0xC); // PIFF, size, RBHF
-		
-		RBHChunkHeader header = readChunkHeader(); // RBH
-		
-		int numBodyChunks = header.getSize() / 12;
-		
-		int[] bodyChunkSize = new int[numBodyChunks];
-		logger.debug("----------\r\nRBHH:");
-		
-		for (int i = 0; i < numBodyChunks; i++) {
-			int unknown1 = stream.readInt();
-			bodyChunkSize[i] = stream.readInt();
-			short unknown2 = stream.readShort();
-			short unknown3 = stream.readShort();
-			
-			logger.debug("\t" + unknown1 + "\t" + bodyChunkSize[i] + "\t" + unknown2 + "\t" + unknown3);
-		}
-		
-		rbh.setBodyChunkSize(bodyChunkSize);
-		
-		return bodyChunkSize;
-	}
-
-	private void readBodyNodes() throws IOException { // BODY 1
-		RBHChunkHeader header = readChunkHeader();
-		
-		int numNodes = stream.readInt();
-		int numLeafs = stream.readInt();
-		int offsetRoot = stream.readInt();
-		int offsetBody2 = stream.readInt();
-		int offsetBody3 = stream.readInt();
+	// the models are independent, so they are processed in parallel
+	private void processModels() {
+		List<Model> models = rbh.getModels();
+		float[][] acmr = new float[models.size()][];
 		
-		if (offsetBody2 != 0 || offsetBody3 != 0) {
-			logger.error("BODY1: offsetBody2 or offsetBody3 not NULL!");
-		}
-		
-		BodyNode root = readNode(header.getPosition(), offsetRoot);
-		
-		logger.debug("----------\r\nBODY 1:");
-		logger.debug("\t" + root.toString());
-		
-		rbh.setRootNode(root);
-	}
-
-	private BodyNode readNode(int position, int offset) throws IOException {
-		stream.seek(position + offset);
-		
-		int offsetSibling = stream.readInt();
-		int offsetChild = stream.readInt();
-		float[] values = { stream.readFloat(), stream.readFloat(), stream.readFloat(), stream.readFloat() };
-		
-		if (offsetSibling == 0) {
-			// is leaf
-			int numVertices = stream.readInt();
-			int unknown = stream.readInt();
-			int index3 = stream.readInt();
-			int[] indices2 = new int[numVertices];
-			for (int i = 0; i < numVertices; i++) {
-				indices2[i] = stream.readShort();
+		IntStream.range(0, models.size()).parallel().forEach(i -> {
+			Model m = models.get(i);
+			MeshWelder.weld(m, uvEpsilon);
+			Triangulator.triangulate(m);
+			if (optimizeVertexCache) {
+				acmr[i] = VertexCacheOptimizer.optimize(m);
 			}
-			return new BodyNode(values, index3, indices2);
-		} else {
-			// is node
-			return new BodyNode(readNode(position, offsetSibling), readNode(position, offsetChild), values);
-		}
-	}
-
-	private Vertex[] readBodyVertices() throws IOException { // BODY 2
-		return readBodyVert(2);
-	}
-
-	private Vertex[] readBodyNormals() throws IOException { // BODY 3
-		return readBodyVert(3);
-	}
-
-	private Vertex[] readBodyVert(int bodyIndex) throws IOException {
-		RBHChunkHeader header = readChunkHeader();
-		
-		int numVerts = stream.readInt();
-		
-		Vertex[] verts = new Vertex[numVerts];
-		
-		logger.debug("----------\r\nBODY 2/3:");
+		});
 		
-		for (int i = 0; i < numVerts; i++) {
-			verts[i] = new Vertex(stream.readFloat(), stream.readFloat(), stream.readFloat());
-			logger.debug("\t" + verts[i].toString());
-		}
-		
-		if (bodyIndex == 2) {
-			rbh.setVerts(verts);
-		} else {
-			rbh.setNormals(verts);
-		}
-		
-		return verts;
-	}
-
-	private void readExtraInfoHeader() throws IOException { // BODY 4
-		RBHChunkHeader header = readChunkHeader();
-		
-		logger.debug("----------\r\nBODY 4:");
-		
-		int offsetName   = stream.readInt();
-		int numUnknown   = stream.readInt();
-		int numLods      = stream.readInt();
-		int numSubmodels = stream.readInt();
-		int numWheels    = stream.readInt();
-		
-		logger.debug(String.format("\t%d, %d, %d, %d", numUnknown, numLods, numSubmodels, numWheels));
-		
-		int unknown1 = stream.readInt();
-		int unknown2 = stream.readInt();
-		
-		int offsetBody1 = stream.readInt();
-		int[] offsetBody5 = new int[] { stream.readInt(), stream.readInt(), stream.readInt() };
-		float[] values = new float[] {
-				stream.readFloat(), stream.readFloat(), stream.readFloat(),
-				stream.readFloat(), stream.readFloat(), stream.readFloat() };
-		
-		if ((stream.getPosition() - header.getPosition()) != offsetName) {
-			logger.error("BODY4: wrong position!");
-		}
-		
-		String name = stream.readString();
-		
-		logger.debug("\t" + name);
-		logger.debug("\t" + values[0] + "\t" + values[1] + "\t" + values[2]);
-		logger.debug("\t" + values[3] + "\t" + values[4] + "\t" + values[5]);
-		
-		rbh.setNumLods(numLods);
-		rbh.setNumSubmodels(numSubmodels);
-		rbh.setNumWheels(numWheels);
-		rbh.setName(name);
-	}
-
-	private void readExtraInfo() throws IOException { // BODY 5
-		RBHChunkHeader header = readChunkHeader();
+		MeshInstances.find(models);
 		
-		int[] lodOffset = new int[rbh.getNumLods()];
-		for (int lodIndex = 0; lodIndex < rbh.getNumLods(); lodIndex++) {
-			lodOffset[lodIndex] = stream.readInt();
-		}
-		
-		logger.debug("----------\r\nBODY 5:");
-		
-		int[][] modelOffset = new int[rbh.getNumLods()][rbh.getNumSubmodels()];
-		int[][] wheelOffset = new int[rbh.getNumLods()][rbh.getNumWheels()];
-		Vertex[][] wheelPosition = new Vertex[rbh.getNumLods()][rbh.getNumWheels()];
-		
-		for (int lodIndex = 0; lodIndex < lodOffset.length; lodIndex++) {
-			stream.seek(header.getPosition() + lodOffset[lodIndex]);
-			stream.readInt(); // unknown
-			int wheels = stream.readInt();
-			
-			int[] subModelOffset = new int[rbh.getNumSubmodels()];
-			for (int subModelIndex = 0; subModelIndex < subModelOffset.length; subModelIndex++) {
-				subModelOffset[subModelIndex] = stream.readInt();
-			}
-			
-			for (int subModelIndex = 0; subModelIndex < subModelOffset.length; subModelIndex++) {
-				stream.seek(header.getPosition() + subModelOffset[subModelIndex]);
-				
-				stream.readInt();
-				stream.readInt();
-				stream.readInt();
-				
-				float[] values = new float[] { stream.readFloat(), stream.readFloat(), stream.readFloat(), stream.readFloat() };
-				logger.debug(String.format(Locale.US, "\t%f, %f, %f, %f", values[0], values[1], values[2], values[3]));
-				
-				modelOffset[lodIndex][subModelIndex] = stream.readInt();
-			}
-			logger.debug("");
-			
-			stream.seek(header.getPosition() + wheels);
-			
-			for (int wheelIndex = 0; wheelIndex < rbh.getNumWheels(); wheelIndex++) {
-				stream.readByte(); // wheel index?
-				stream.readByte(); // 0
-				stream.readByte(); // 0
-				stream.readByte(); // 0x60 || 0x20
-				
-				wheelPosition[lodIndex][wheelIndex] = new Vertex(stream.readFloat(), stream.readFloat() * -1, stream.readFloat() * -1);
-				stream.readFloat();
-				stream.readFloat();
-				stream.readFloat();
-				stream.readFloat();
-				
-				wheelOffset[lodIndex][wheelIndex] = stream.readInt();
-			}
-		}
-		
-		rbh.setModelOffset(modelOffset);
-		rbh.setWheelOffset(wheelOffset);
-		rbh.setWheelPosition(wheelPosition);
-		
-		stream.seek(header.getEndPosition());
-	}
-
-	private void readSubModels() throws IOException { // BODY 6
-		RBHChunkHeader header = readChunkHeader();
-		logger.debug("header pos: " + header.getPosition());
-		
-		logger.debug("----------\r\nBODY 6:");
-		logger.debug(String.format("\t#LODs: %d, #Submodels: %d", rbh.getNumLods(), rbh.getNumSubmodels()));
-		
-		for (int lodIndex = 0; lodIndex < rbh.getNumLods(); lodIndex++) {
-			for (int wheelIndex = 0; wheelIndex < rbh.getNumWheels(); wheelIndex++) {
-				int offset = rbh.getWheelOffset(lodIndex, wheelIndex);
-				Vertex wheelPosition = rbh.getWheelPosition(lodIndex, wheelIndex);
-				
-				if (wheelPosition.x != 0 || offset != 0) {
-					Model model = readModel(header.getPosition() + offset);
-					
-					model.setLodIndex(lodIndex);
-					model.setWheelIndex(wheelIndex);
-					model.setWheelPosition(wheelPosition);
-					rbh.addModel(model);
-				}
-			}
-			
-			for (int subModelIndex = 0; subModelIndex < rbh.getNumSubmodels(); subModelIndex++) {
-				int offset = rbh.getModelOffset(lodIndex, subModelIndex);
-				
-				//if (offset != 0) {
-					Model model = readModel(header.getPosition() + offset);
-					
-					model.setLodIndex(lodIndex);
-					model.setSubModelIndex(subModelIndex);
-					rbh.addModel(model);
-				//}
+		if (optimizeVertexCache) {
+			logger.info("ACMR (FIFO " + VertexCacheOptimizer.FIFO_SIZE + ") before -> after:");
+			for (int i = 0; i < models.size(); i++) {
+				logger.info(String.format(Locale.US, "\tmodel %d: %.3f -> %.3f", i, acmr[i][0], acmr[i][1]));
 			}
 		}
-		
-		stream.seek(header.getEndPosition());
 	}
 
-	private Model readModel(int position) throws IOException {
-		stream.seek(position);
-		
-		int identifier = stream.readInt(); // 2 = standard map face, 1 = special map face, 1000 = model face
+	/*
+	 * Replaces the models by the merged models and writes the triangles of every original model
+	 * to <name>.batches.txt: model, merged model, material, first triangle in the batch
+	 * of the material and number of triangles.
+	 */
+	private void mergeModels() throws IOException {
+		List<Model> models = new ArrayList<Model>(rbh.getModels());
 		
-		stream.readInt(); // subChunkSize
-		int numFaces = stream.readInt();
-		int sumNumVerts = stream.readInt(); // sumNumVerts
-		int vertexOffset = stream.readInt(); // offset in BODY 8
-		int normalOffset = stream.readInt(); // offset in BODY 7
-		
-		if (identifier != 1000) {
-			stream.readInt(); // another offset, only for map faces
+		int numMaterials = rbh.getNumMaterials();
+		for (Model m : models) {
+			numMaterials = Math.max(numMaterials, m.getNumMaterials());
 		}
 		
-		ArrayList<Face> faces = new ArrayList<Face>(numFaces);
-		ArrayList<TexCoord> texCoords = new ArrayList<TexCoord>();
-		
-		int texCoordOffset = 0;
+		ArrayList<String> lines = new ArrayList<String>();
+		rbh.getModels().clear();
 		
-		for (int f = 0; f < numFaces; f++) {
-			ArrayList<Integer> vertIds = new ArrayList<Integer>();
-			
-			stream.readInt(); // 41 00 00 00 | 51 00 00 00 | 61 00 00 00 | 43 10 00 00
-			stream.readByte(); // numBytes
-			int numVerts = stream.readByte();
-			int normalId = stream.readShort();
-			int texId = stream.readShort();
-			stream.readShort(); // AD DE
-			
-			for (int v = 0; v < numVerts; v++) {
-				int vertId = stream.readShort();
-				short flags = stream.readShort(); // unknown effect
-				
-				float vertU = stream.readFloat();
-				float vertV = stream.readFloat() * -1;
-				
-				if (flags != 4) {
-					// TODO: figure out what the flags do
-					// see the hood of stan.rbh -> the flags do something to the texture mapping
+		int numGroups = rbh.isMap() ? 1 : rbh.getNumLods();
+		for (int lodIndex = 0; lodIndex < numGroups; lodIndex++) {
+			List<Model> group = new ArrayList<Model>();
+			List<String> names = new ArrayList<String>();
+			for (int i = 0; i < models.size(); i++) {
+				Model m = models.get(i);
+				if (rbh.isMap() || m.getLodIndex() == lodIndex) {
+					group.add(m);
+					names.add(getName(m, i));
 				}
-				vertIds.add(vertId);
-				texCoords.add(new TexCoord(vertU, vertV));
 			}
-			
-			faces.add(new Face(vertIds, normalId, texCoordOffset, texId));
-			
-			texCoordOffset += numVerts;
-		}
-		
-		stream.readInt(); // 00 00 00 00
-		stream.readInt(); // 00 00 00 00
-		
-		Model model = new Model();
-		model.setNumVerts(sumNumVerts);
-		model.setVertexOffset(vertexOffset);
-		model.setNormalOffset(normalOffset);
-		model.setFaces(faces);
-		model.setTexCoords(texCoords);
-		
-		return model;
-	}
-
-	private void readNormals() throws IOException { // BODY 7
-		RBHChunkHeader header = readChunkHeader();
-		
-		logger.debug("----------\r\nBODY 7:");
-		
-		for (Model m : rbh.getModels()) {
-			stream.seek(header.getPosition() + m.getNormalOffset());
-			
-			ArrayList<Normal> normals = new ArrayList<Normal>();
-			for (int i = 0; i < m.getNumFaces(); i++) {
-				Normal normal = new Normal(stream.readFloat(), stream.readFloat(), stream.readFloat());
-				logger.debug(normal.toString());
-				normals.add(normal);
+			if (group.isEmpty()) {
+				continue; // LOD not extracted
 			}
-			logger.debug("");
-			
-			m.setNormals(normals);
-		}
-		
-		stream.seek(header.getEndPosition());
-	}
-
-	private void readVertices() throws IOException { // BODY 8
-		RBHChunkHeader header = readChunkHeader();
-		
-		logger.debug("----------\r\nBODY 8:");
-		
-		for (Model m : rbh.getModels()) {
-			stream.seek(header.getPosition() + m.getVertexOffset());
-			
-			int numVerts = stream.readInt();
-			ArrayList<Vertex> verts = new ArrayList<Vertex>(numVerts);
 			
-			for (int v = 0; v < numVerts; v++) {
-				float x = stream.readFloat();
-				float y = stream.readFloat() * -1;
-				float z = stream.readFloat() * -1;
-				stream.readFloat();
-				stream.readFloat();
-				stream.readFloat();
-				stream.readInt();
-				
-				Vertex vert = new Vertex(x, y, z);
-				logger.debug(vert.toString());
-				verts.add(vert);
+			int[][] ranges = new int[group.size()][];
+			Model merged = MaterialBatcher.merge(group, numMaterials, ranges);
+			merged.setLodIndex(lodIndex);
+			merged.setSubModelIndex(0);
+			int batch = rbh.getModels().size();
+			rbh.addModel(merged);
+			
+			for (int i = 0; i < group.size(); i++) {
+				for (int t = 0; t < numMaterials; t++) {
+					if (ranges[i][t * 2 + 1] > 0) {
+						lines.add(names.get(i) + "\t" + batch + "\t" + (t + 1) + "\t" + ranges[i][t * 2] + "\t" + ranges[i][t * 2 + 1]);
+					}
+				}
 			}
-			logger.debug("");
-			
-			m.setVerts(verts);
 		}
 		
-		stream.seek(header.getEndPosition());
-	}
-
-	private void readWaterTextureNames() throws IOException { // BODY extra
-		RBHChunkHeader header = readChunkHeader();
-		
-		int endPosition = stream.getPosition() + header.getSize();
+		BufferedWriter writer = new BufferedWriter(new FileWriter(rbh.getOutputDir() + rbh.getModelName() + ".batches.txt"));
+		writer.write("BATCHES");
+		writer.newLine();
+		writer.write("" + lines.size());
+		writer.newLine();
 		
-		while (stream.getPosition() != endPosition) { 
-			String textureName = stream.readString();
-			logger.debug(textureName);
+		for (String line : lines) {
+			writer.write(line);
+			writer.newLine();
 		}
+		writer.close();
 	}
 
-	private void readTextureOffsets() throws IOException { // BODY 9
-		RBHChunkHeader header = readChunkHeader();
-		
-		int numTextures = stream.readShort();
-		int numSpecialTextures = stream.readShort();
-		int offset = stream.readInt();
-		int offsetSpecial = stream.readInt();
-		
-		int[] textureOffset = new int[numTextures];
-		for (int i = 0; i < numTextures; i++) {
-			textureOffset[i] = stream.readInt();
+	// same names as the files of the single models
+	private String getName(Model m, int modelIndex) {
+		if (rbh.isMap()) {
+			return rbh.getModelName() + "_" + modelIndex;
 		}
-		
-		int[] textureOffsetSpecial = new int[numSpecialTextures];
-		for (int i = 0; i < numSpecialTextures; i++) {
-			textureOffsetSpecial[i] = stream.readInt();
+		if (m.isWheel()) {
+			return rbh.getModelName() + "_" + m.getLodIndex() + "_wheel_" + m.getWheelIndex();
 		}
-		
-		rbh.setTextureOffset(textureOffset);
-		rbh.setTextureOffsetSpecial(textureOffsetSpecial);
-		
-		logger.debug("Texture: " + numTextures + ", " + numSpecialTextures + ", " + offset + ", " + offsetSpecial);
+		return rbh.getModelName() + "_" + m.getLodIndex() + "_" + m.getSubModelIndex();
 	}
 
-	private void readMaterialIds() throws IOException { // BODY 10
-		RBHChunkHeader header = readChunkHeader();
-		
-		int[] materialIds = new int[rbh.getNumTextures()];
-		
-		for (int i = 0; i < materialIds.length; i++) {
-			stream.seek(header.getPosition() +  rbh.getTextureOffset(i));
-			materialIds[i] = stream.readShort();
+	private void readHeader(RbhArchive archive) throws IOException { // BODY 4
+		if (lods != null) {
+			for (int lod : lods) {
+				if (lod < 0 || lod >= archive.getNumLods()) {
+					logger.warn("LOD " + lod + " does not exist, " + archive.getName() + " has " + archive.getNumLods() + " LODs");
+				}
+			}
 		}
 		
-		rbh.setMaterialIds(materialIds);
+		rbh.setNumLods(archive.getNumLods());
+		rbh.setNumSubmodels(archive.getNumSubmodels());
+		rbh.setNumWheels(archive.getNumWheels());
+		rbh.setName(archive.getName());
 	}
 
 }
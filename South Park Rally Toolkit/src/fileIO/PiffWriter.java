@@ -0,0 +1,157 @@
+package fileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Writes a PIFF file chunk by chunk directly to disk. The size of a chunk is written as
+ * placeholder and patched when the chunk ends, so the content never has to be assembled
+ * in memory. Small values are collected in a buffer, large arrays are written directly.
+ * The PIFF chunk itself is opened by the constructor and closed by close.
+ */
+public class PiffWriter {
+
+	private static final int BUFFER_SIZE = 0x10000;
+
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private ByteBuffer patch = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+	// bytes flushed to the channel
+	private long flushed;
+
+	// positions of the size fields of the open chunks
+	private long[] chunkSizePositions = new long[8];
+	private int numOpenChunks;
+
+	public PiffWriter(File file, String type) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		beginChunk("PIFF");
+		writeId(type);
+	}
+
+	public long position() {
+		return flushed + buffer.position();
+	}
+
+	public void writeId(String id) throws IOException {
+		write(id.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensureSpace(4);
+		buffer.putInt(value);
+	}
+
+	public void writeShort(short value) throws IOException {
+		ensureSpace(2);
+		buffer.putShort(value);
+	}
+
+	public void write(byte[] b) throws IOException {
+		write(b, 0, b.length);
+	}
+
+	public void write(byte[] b, int offset, int length) throws IOException {
+		if (length <= buffer.remaining()) {
+			buffer.put(b, offset, length);
+			return;
+		}
+		flush();
+		if (length < BUFFER_SIZE) {
+			buffer.put(b, offset, length);
+		} else {
+			writeFully(ByteBuffer.wrap(b, offset, length));
+		}
+	}
+
+	// writes the remaining bytes of the buffers with gathering writes, the buffers are not copied
+	public void write(ByteBuffer[] buffers) throws IOException {
+		flush();
+		int offset = 0;
+		while (offset < buffers.length) {
+			flushed += channel.write(buffers, offset, buffers.length - offset);
+			while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+				offset++;
+			}
+		}
+	}
+
+	// writes count zero bytes
+	public void pad(int count) throws IOException {
+		while (count > 0) {
+			ensureSpace(1);
+			int n = Math.min(count, buffer.remaining());
+			for (int i = 0; i < n; i++) {
+				buffer.put((byte) 0);
+			}
+			count -= n;
+		}
+	}
+
+	// writes the identifier and a placeholder for the size
+	public void beginChunk(String id) throws IOException {
+		writeId(id);
+		if (numOpenChunks == chunkSizePositions.length) {
+			chunkSizePositions = Arrays.copyOf(chunkSizePositions, numOpenChunks * 2);
+		}
+		chunkSizePositions[numOpenChunks++] = position();
+		writeInt(0);
+	}
+
+	// the size of a chunk is the number of bytes that follow the size field
+	public void endChunk() throws IOException {
+		long sizePosition = chunkSizePositions[--numOpenChunks];
+		patchInt(sizePosition, (int) (position() - sizePosition - 4));
+	}
+
+	// overwrites a value that has already been written, e.g. a size in a table before its chunk
+	public void patchInt(long position, int value) throws IOException {
+		if (position >= flushed) {
+			buffer.putInt((int) (position - flushed), value);
+			return;
+		}
+		patch.clear();
+		patch.putInt(value);
+		patch.flip();
+		while (patch.hasRemaining()) {
+			channel.write(patch, position + patch.position());
+		}
+	}
+
+	// ends all open chunks including PIFF
+	public void close() throws IOException {
+		try {
+			while (numOpenChunks > 0) {
+				endChunk();
+			}
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void ensureSpace(int n) throws IOException {
+		if (buffer.remaining() < n) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			flushed += channel.write(b);
+		}
+	}
+}
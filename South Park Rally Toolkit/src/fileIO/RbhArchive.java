@@ -0,0 +1,767 @@
+package fileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import entities.model.Model;
+import entities.model.Vertex;
+import entities.rbh.BodyTree;
+import entities.rbh.RBHChunkHeader;
+import logger.Logger;
+import logger.Logger.Level;
+
+/*
+ * Random access to the chunks of a model RBH (car or map).
+ * Opening a file only reads the RBHH table, the BODY chunks are decoded on first access
+ * and cached. Models are returned with their normals (BODY 7) and vertices (BODY 8),
+ * models referencing the same normal or vertex block share the decoded array.
+ *
+ * car: BODY 1 nodes, 2 vertices, 3 normals, 4 header, 5 LOD tables, 6 models, 7 normals,
+ *      8 vertices, 9 texture offsets, 10 material ids
+ * map: BODY 1-5 unused, 6 models, 7 normals, 8 vertices, (water texture names),
+ *      texture offsets, material ids
+ */
+public class RbhArchive {
+
+	private static final int BODY_NODES = 0;
+	private static final int BODY_VERTICES = 1;
+	private static final int BODY_NORMALS = 2;
+	private static final int BODY_HEADER = 3;
+	private static final int BODY_LODS = 4;
+	private static final int BODY_MODELS = 5;
+	private static final int BODY_MODEL_NORMALS = 6;
+	private static final int BODY_MODEL_VERTICES = 7;
+
+	private LittleEndianInputStream stream;
+	private Logger logger;
+
+	private int[] bodyChunkSize;
+	private int[] chunkPosition;
+	private boolean[] chunkChecked;
+
+	// BODY 1 - 3
+	private BodyTree bodyTree;
+	private Vertex[] bodyVertices;
+	private Vertex[] bodyNormals;
+
+	// BODY 4
+	private boolean hasHeader;
+	private int numLods;
+	private int numSubmodels;
+	private int numWheels;
+	private String name;
+
+	// BODY 5
+	private int[][] modelOffset;
+	private int[][] wheelOffset;
+	private Vertex[][] wheelPosition;
+
+	// BODY 6
+	private Model[][] subModels;
+	private Model[][] wheels;
+	private int[] mapModelOffsets;
+	private Model[] mapModels;
+
+	// BODY 7 and 8, decoded blocks by offset
+	private HashMap<Integer, float[]> normalBlocks = new HashMap<Integer, float[]>();
+	private HashMap<Integer, float[]> vertexBlocks = new HashMap<Integer, float[]>();
+
+	private String[] waterTextureNames;
+	private int[] textureOffsets;
+	private int[] textureOffsetsSpecial;
+	private int[] materialIds;
+
+	public RbhArchive(File file) throws IOException {
+		this(file, warnLogger());
+	}
+
+	public RbhArchive(File file, Logger logger) throws IOException {
+		this.logger = logger;
+		this.stream = new LittleEndianInputStream(file);
+		readRbhh();
+	}
+
+	private static Logger warnLogger() {
+		Logger logger = new Logger();
+		logger.setLevel(Level.WARN);
+		return logger;
+	}
+
+	private void readRbhh() throws IOException {
+		stream.skip(0xC); // PIFF, size, RBHF
+		
+		RBHChunkHeader header = readChunkHeader(); // RBHH
+		
+		int numBodyChunks = header.getSize() / 12;
+		
+		bodyChunkSize = new int[numBodyChunks];
+		logger.debug("----------\r\nRBHH:");
+		
+		for (int i = 0; i < numBodyChunks; i++) {
+			int unknown1 = stream.readInt();
+			bodyChunkSize[i] = stream.readInt();
+			short unknown2 = stream.readShort();
+			short unknown3 = stream.readShort();
+			
+			logger.debug("\t" + unknown1 + "\t" + bodyChunkSize[i] + "\t" + unknown2 + "\t" + unknown3);
+		}
+		
+		// the BODY chunks follow the RBHH chunk without padding
+		chunkPosition = new int[numBodyChunks];
+		chunkChecked = new boolean[numBodyChunks];
+		int position = header.getEndPosition();
+		for (int i = 0; i < numBodyChunks; i++) {
+			chunkPosition[i] = position;
+			position += 8 + bodyChunkSize[i];
+		}
+	}
+
+	private RBHChunkHeader readChunkHeader() throws IOException {
+		return new RBHChunkHeader(stream.getPosition(), stream.readString(4), stream.readInt());
+	}
+
+	// header of BODY chunk index (0 based), the stream is positioned at the chunk data
+	private RBHChunkHeader seekChunk(int index) throws IOException {
+		if (index >= chunkPosition.length) {
+			throw new IOException("BODY" + (index + 1) + " does not exist, the file has " + chunkPosition.length + " BODY chunks");
+		}
+		
+		stream.seek(chunkPosition[index]);
+		if (!chunkChecked[index]) {
+			RBHChunkHeader header = readChunkHeader();
+			if (!header.getIdentifier().equals("BODY") || header.getSize() != bodyChunkSize[index]) {
+				throw new IOException("BODY" + (index + 1) + ": unexpected chunk " + header.getIdentifier() + " at " + chunkPosition[index]);
+			}
+			chunkChecked[index] = true;
+		} else {
+			stream.skip(8);
+		}
+		return new RBHChunkHeader(chunkPosition[index], "BODY", bodyChunkSize[index]);
+	}
+
+	public int[] getBodyChunkSize() {
+		return bodyChunkSize;
+	}
+
+	public int getNumBodyChunks() {
+		return bodyChunkSize.length;
+	}
+
+	public boolean isMap() {
+		return bodyChunkSize.length > 0 && bodyChunkSize[0] == 0;
+	}
+
+	// maps with water have an extra chunk with texture names before the texture offsets
+	private int getTextureOffsetsChunk() {
+		return isMap() && bodyChunkSize.length == 12 ? 9 : 8;
+	}
+
+	public synchronized BodyTree getBodyTree() throws IOException { // BODY 1
+		if (bodyTree != null) {
+			return bodyTree;
+		}
+		RBHChunkHeader header = seekChunk(BODY_NODES);
+		
+		int numNodes = stream.readInt();
+		stream.readInt(); // numLeafs
+		int offsetRoot = stream.readInt();
+		int offsetBody2 = stream.readInt();
+		int offsetBody3 = stream.readInt();
+		
+		if (offsetBody2 != 0 || offsetBody3 != 0) {
+			logger.error("BODY1: offsetBody2 or offsetBody3 not NULL!");
+		}
+		
+		bodyTree = readBodyTree(header.getPosition(), offsetRoot, numNodes);
+		
+		logger.debug("----------\r\nBODY 1:");
+		logger.debug("\t" + bodyTree.toString());
+		
+		return bodyTree;
+	}
+
+	/*
+	 * Reads the nodes in pre-order with an explicit stack and absolute reads.
+	 * node: offset sibling, offset child, 4 floats
+	 * leaf: 0, 0, 4 floats, number of indices, unknown, index3, indices (shorts)
+	 */
+	private BodyTree readBodyTree(int position, int offsetRoot, int capacity) throws IOException {
+		capacity = Math.max(capacity, 1);
+		int[] sibling = new int[capacity];
+		int[] child = new int[capacity];
+		float[] values = new float[capacity * 4];
+		int[] index3 = new int[capacity];
+		int[] leafOffsets = new int[capacity + 1];
+		int[] leafIndices = new int[capacity * 4];
+		int numNodes = 0;
+		int numLeafIndices = 0;
+		
+		// pending nodes: offset and the slot in sibling/child that references it
+		int[] stack = new int[32];
+		int top = 0;
+		stack[top++] = offsetRoot;
+		stack[top++] = -1;
+		
+		while (top > 0) {
+			int slot = stack[--top];
+			int p = position + stack[--top];
+			
+			int node = numNodes++;
+			if (node == sibling.length) {
+				int length = sibling.length * 2;
+				sibling = Arrays.copyOf(sibling, length);
+				child = Arrays.copyOf(child, length);
+				values = Arrays.copyOf(values, length * 4);
+				index3 = Arrays.copyOf(index3, length);
+				leafOffsets = Arrays.copyOf(leafOffsets, length + 1);
+			}
+			if (slot >= 0) {
+				(slot % 2 == 0 ? sibling : child)[slot / 2] = node;
+			}
+			
+			int offsetSibling = stream.readInt(p);
+			int offsetChild = stream.readInt(p + 4);
+			for (int i = 0; i < 4; i++) {
+				values[node * 4 + i] = stream.readFloat(p + 8 + i * 4);
+			}
+			
+			if (offsetSibling == 0) {
+				// is leaf
+				int numIndices = stream.readInt(p + 24);
+				index3[node] = stream.readInt(p + 32);
+				if (numLeafIndices + numIndices > leafIndices.length) {
+					leafIndices = Arrays.copyOf(leafIndices, Math.max(leafIndices.length * 2, numLeafIndices + numIndices));
+				}
+				for (int i = 0; i < numIndices; i++) {
+					leafIndices[numLeafIndices++] = stream.readShort(p + 36 + i * 2);
+				}
+				sibling[node] = -1;
+				child[node] = -1;
+			} else {
+				// is node, the sibling subtree is numbered first
+				if (top + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[top++] = offsetChild;
+				stack[top++] = node * 2 + 1;
+				stack[top++] = offsetSibling;
+				stack[top++] = node * 2;
+				index3[node] = 0;
+			}
+			leafOffsets[node + 1] = numLeafIndices;
+		}
+		
+		return new BodyTree(numNodes, sibling, child, values, index3, leafOffsets, Arrays.copyOf(leafIndices, numLeafIndices));
+	}
+
+	public synchronized Vertex[] getBodyVertices() throws IOException { // BODY 2
+		if (bodyVertices == null) {
+			bodyVertices = readBodyVert(BODY_VERTICES);
+		}
+		return bodyVertices;
+	}
+
+	public synchronized Vertex[] getBodyNormals() throws IOException { // BODY 3
+		if (bodyNormals == null) {
+			bodyNormals = readBodyVert(BODY_NORMALS);
+		}
+		return bodyNormals;
+	}
+
+	private Vertex[] readBodyVert(int bodyIndex) throws IOException {
+		seekChunk(bodyIndex);
+		
+		int numVerts = stream.readInt();
+		
+		Vertex[] verts = new Vertex[numVerts];
+		float[] xyz = new float[numVerts * 3];
+		stream.readFloats(xyz, numVerts, 12, 3);
+		
+		logger.debug("----------\r\nBODY 2/3:");
+		
+		for (int i = 0; i < numVerts; i++) {
+			verts[i] = new Vertex(xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]);
+			logger.debug("\t" + verts[i].toString());
+		}
+		return verts;
+	}
+
+	private void readHeader() throws IOException { // BODY 4
+		if (hasHeader) {
+			return;
+		}
+		RBHChunkHeader header = seekChunk(BODY_HEADER);
+		
+		logger.debug("----------\r\nBODY 4:");
+		
+		int offsetName   = stream.readInt();
+		int numUnknown   = stream.readInt();
+		numLods          = stream.readInt();
+		numSubmodels     = stream.readInt();
+		numWheels        = stream.readInt();
+		
+		logger.debug(String.format("\t%d, %d, %d, %d", numUnknown, numLods, numSubmodels, numWheels));
+		
+		stream.readInt(); // unknown
+		stream.readInt(); // unknown
+		
+		stream.readInt(); // offset BODY 1
+		stream.skip(3 * 4); // offsets BODY 5
+		float[] values = new float[6];
+		stream.readFloats(values);
+		
+		if ((stream.getPosition() - header.getPosition()) != offsetName) {
+			logger.error("BODY4: wrong position!");
+		}
+		
+		name = stream.readString();
+		
+		logger.debug("\t" + name);
+		logger.debug("\t" + values[0] + "\t" + values[1] + "\t" + values[2]);
+		logger.debug("\t" + values[3] + "\t" + values[4] + "\t" + values[5]);
+		
+		hasHeader = true;
+	}
+
+	public synchronized int getNumLods() throws IOException {
+		readHeader();
+		return numLods;
+	}
+
+	public synchronized int getNumSubmodels() throws IOException {
+		readHeader();
+		return numSubmodels;
+	}
+
+	public synchronized int getNumWheels() throws IOException {
+		readHeader();
+		return numWheels;
+	}
+
+	public synchronized String getName() throws IOException {
+		readHeader();
+		return name;
+	}
+
+	private void readLods() throws IOException { // BODY 5
+		if (modelOffset != null) {
+			return;
+		}
+		readHeader();
+		RBHChunkHeader header = seekChunk(BODY_LODS);
+		
+		int[] lodOffset = new int[numLods];
+		stream.readInts(lodOffset);
+		
+		logger.debug("----------\r\nBODY 5:");
+		
+		int[][] modelOffset = new int[numLods][numSubmodels];
+		int[][] wheelOffset = new int[numLods][numWheels];
+		Vertex[][] wheelPosition = new Vertex[numLods][numWheels];
+		
+		for (int lodIndex = 0; lodIndex < numLods; lodIndex++) {
+			stream.seek(header.getPosition() + lodOffset[lodIndex]);
+			stream.readInt(); // unknown
+			int wheels = stream.readInt();
+			
+			int[] subModelOffset = new int[numSubmodels];
+			stream.readInts(subModelOffset);
+			
+			for (int subModelIndex = 0; subModelIndex < numSubmodels; subModelIndex++) {
+				stream.seek(header.getPosition() + subModelOffset[subModelIndex]);
+				
+				stream.readInt();
+				stream.readInt();
+				stream.readInt();
+				
+				float[] values = new float[4];
+				stream.readFloats(values);
+				logger.debug(String.format(Locale.US, "\t%f, %f, %f, %f", values[0], values[1], values[2], values[3]));
+				
+				modelOffset[lodIndex][subModelIndex] = stream.readInt();
+			}
+			logger.debug("");
+			
+			stream.seek(header.getPosition() + wheels);
+			
+			for (int wheelIndex = 0; wheelIndex < numWheels; wheelIndex++) {
+				stream.readByte(); // wheel index?
+				stream.readByte(); // 0
+				stream.readByte(); // 0
+				stream.readByte(); // 0x60 || 0x20
+				
+				wheelPosition[lodIndex][wheelIndex] = new Vertex(stream.readFloat(), stream.readFloat() * -1, stream.readFloat() * -1);
+				stream.skip(4 * 4);
+				
+				wheelOffset[lodIndex][wheelIndex] = stream.readInt();
+			}
+		}
+		
+		this.modelOffset = modelOffset;
+		this.wheelOffset = wheelOffset;
+		this.wheelPosition = wheelPosition;
+		this.subModels = new Model[numLods][numSubmodels];
+		this.wheels = new Model[numLods][numWheels];
+	}
+
+	public synchronized Model getSubModel(int lodIndex, int subModelIndex) throws IOException {
+		Model model = subModel(lodIndex, subModelIndex);
+		loadGeometry(Collections.singletonList(model));
+		return model;
+	}
+
+	// null if the LOD has no model for this wheel
+	public synchronized Model getWheel(int lodIndex, int wheelIndex) throws IOException {
+		Model model = wheel(lodIndex, wheelIndex);
+		if (model != null) {
+			loadGeometry(Collections.singletonList(model));
+		}
+		return model;
+	}
+
+	/*
+	 * All models of the given LODs (null for all LODs), the wheels of a LOD before its submodels.
+	 * The geometry of all models is read in one pass over BODY 7 and BODY 8.
+	 */
+	public synchronized List<Model> getCarModels(int[] lods) throws IOException {
+		readLods();
+		List<Model> models = new ArrayList<Model>();
+		for (int lodIndex = 0; lodIndex < numLods; lodIndex++) {
+			if (!contains(lods, lodIndex)) {
+				continue;
+			}
+			for (int wheelIndex = 0; wheelIndex < numWheels; wheelIndex++) {
+				Model model = wheel(lodIndex, wheelIndex);
+				if (model != null) {
+					models.add(model);
+				}
+			}
+			for (int subModelIndex = 0; subModelIndex < numSubmodels; subModelIndex++) {
+				models.add(subModel(lodIndex, subModelIndex));
+			}
+		}
+		loadGeometry(models);
+		return models;
+	}
+
+	private static boolean contains(int[] values, int value) {
+		if (values == null) {
+			return true;
+		}
+		for (int v : values) {
+			if (v == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Model subModel(int lodIndex, int subModelIndex) throws IOException {
+		readLods();
+		if (subModels[lodIndex][subModelIndex] == null) {
+			Model model = readModel(modelOffset[lodIndex][subModelIndex]);
+			model.setLodIndex(lodIndex);
+			model.setSubModelIndex(subModelIndex);
+			subModels[lodIndex][subModelIndex] = model;
+		}
+		return subModels[lodIndex][subModelIndex];
+	}
+
+	private Model wheel(int lodIndex, int wheelIndex) throws IOException {
+		readLods();
+		int offset = wheelOffset[lodIndex][wheelIndex];
+		Vertex position = wheelPosition[lodIndex][wheelIndex];
+		if (position.x == 0 && offset == 0) {
+			return null;
+		}
+		if (wheels[lodIndex][wheelIndex] == null) {
+			Model model = readModel(offset);
+			model.setLodIndex(lodIndex);
+			model.setWheelIndex(wheelIndex);
+			model.setWheelPosition(position);
+			wheels[lodIndex][wheelIndex] = model;
+		}
+		return wheels[lodIndex][wheelIndex];
+	}
+
+	public synchronized int getNumMapModels() throws IOException {
+		indexMapModels();
+		return mapModelOffsets.length;
+	}
+
+	public synchronized Model getMapModel(int index) throws IOException {
+		Model model = mapModel(index);
+		loadGeometry(Collections.singletonList(model));
+		return model;
+	}
+
+	// all models of a map, see getCarModels
+	public synchronized List<Model> getMapModels() throws IOException {
+		List<Model> models = new ArrayList<Model>();
+		for (int index = 0; index < getNumMapModels(); index++) {
+			models.add(mapModel(index));
+		}
+		loadGeometry(models);
+		return models;
+	}
+
+	private Model mapModel(int index) throws IOException {
+		indexMapModels();
+		if (mapModels[index] == null) {
+			mapModels[index] = readModel(mapModelOffsets[index]);
+		}
+		return mapModels[index];
+	}
+
+	// the models of a map are stored back to back, only the face headers are read to find them
+	private void indexMapModels() throws IOException {
+		if (mapModelOffsets != null) {
+			return;
+		}
+		RBHChunkHeader header = seekChunk(BODY_MODELS);
+		
+		int[] offsets = new int[16];
+		int count = 0;
+		while (stream.getPosition() < header.getEndPosition()) {
+			if (count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count * 2);
+			}
+			offsets[count++] = stream.getPosition() - header.getPosition();
+			
+			int identifier = stream.readInt();
+			stream.skip(4); // subChunkSize
+			int numFaces = stream.readInt();
+			stream.skip(identifier != 1000 ? 16 : 12);
+			
+			for (int f = 0; f < numFaces; f++) {
+				stream.skip(5);
+				int numVerts = stream.readByte();
+				stream.skip(6 + numVerts * 12);
+			}
+			stream.skip(8);
+		}
+		
+		mapModelOffsets = Arrays.copyOf(offsets, count);
+		mapModels = new Model[count];
+	}
+
+	// reads the faces of the model at offset in BODY 6, see loadGeometry for the normals and vertices
+	private Model readModel(int offset) throws IOException {
+		RBHChunkHeader header = seekChunk(BODY_MODELS);
+		stream.seek(header.getPosition() + offset);
+		
+		int identifier = stream.readInt(); // 2 = standard map face, 1 = special map face, 1000 = model face
+		
+		stream.readInt(); // subChunkSize
+		int numFaces = stream.readInt();
+		int sumNumVerts = stream.readInt(); // sumNumVerts
+		int vertexOffset = stream.readInt(); // offset in BODY 8
+		int normalOffset = stream.readInt(); // offset in BODY 7
+		
+		if (identifier != 1000) {
+			stream.readInt(); // another offset, only for map faces
+		}
+		
+		int[] faceOffsets = new int[numFaces + 1];
+		int[] faceNormalIds = new int[numFaces];
+		int[] faceTexIds = new int[numFaces];
+		int[] faceIndices = new int[numFaces * 4];
+		float[] texCoords = new float[numFaces * 8];
+		
+		int numCorners = 0;
+		
+		for (int f = 0; f < numFaces; f++) {
+			stream.readInt(); // 41 00 00 00 | 51 00 00 00 | 61 00 00 00 | 43 10 00 00
+			stream.readByte(); // numBytes
+			int numVerts = stream.readByte();
+			int normalId = stream.readShort();
+			int texId = stream.readShort();
+			stream.readShort(); // AD DE
+			
+			if (numCorners + numVerts > faceIndices.length) {
+				int capacity = Math.max(faceIndices.length * 2, numCorners + numVerts);
+				faceIndices = Arrays.copyOf(faceIndices, capacity);
+				texCoords = Arrays.copyOf(texCoords, capacity * 2);
+			}
+			
+			for (int v = 0; v < numVerts; v++) {
+				int vertId = stream.readShort();
+				short flags = stream.readShort(); // unknown effect
+				
+				float vertU = stream.readFloat();
+				float vertV = stream.readFloat() * -1;
+				
+				if (flags != 4) {
+					// TODO: figure out what the flags do
+					// see the hood of stan.rbh -> the flags do something to the texture mapping
+				}
+				faceIndices[numCorners + v] = vertId;
+				texCoords[(numCorners + v) * 2] = vertU;
+				texCoords[(numCorners + v) * 2 + 1] = vertV;
+			}
+			
+			faceNormalIds[f] = normalId;
+			faceTexIds[f] = texId;
+			numCorners += numVerts;
+			faceOffsets[f + 1] = numCorners;
+		}
+		
+		stream.readInt(); // 00 00 00 00
+		stream.readInt(); // 00 00 00 00
+		
+		Model model = new Model();
+		model.setNumVerts(sumNumVerts);
+		model.setVertexOffset(vertexOffset);
+		model.setNormalOffset(normalOffset);
+		model.setFaces(faceOffsets, Arrays.copyOf(faceIndices, numCorners), faceNormalIds, faceTexIds);
+		int[] texCoordIds = new int[numCorners];
+		for (int i = 0; i < numCorners; i++) {
+			texCoordIds[i] = i;
+		}
+		model.setTexCoords(Arrays.copyOf(texCoords, numCorners * 2), texCoordIds);
+		
+		return model;
+	}
+
+	/*
+	 * Reads the normals and vertices of the models that do not have them yet. The blocks are
+	 * read in ascending offset order, models that point at the same block share one array.
+	 */
+	private void loadGeometry(List<Model> models) throws IOException {
+		List<Model> pending = new ArrayList<Model>();
+		for (Model m : models) {
+			if (m.getVerts() == null) {
+				pending.add(m);
+			}
+		}
+		
+		pending.sort(Comparator.comparingInt(Model::getNormalOffset));
+		for (Model m : pending) {
+			m.setNormals(readNormals(m.getNormalOffset(), m.getNumFaces()));
+		}
+		
+		pending.sort(Comparator.comparingInt(Model::getVertexOffset));
+		for (Model m : pending) {
+			m.setVerts(readVertices(m.getVertexOffset()));
+		}
+	}
+
+	private float[] readNormals(int offset, int numNormals) throws IOException { // BODY 7
+		float[] cached = normalBlocks.get(offset);
+		if (cached != null && cached.length == numNormals * 3) {
+			return cached;
+		}
+		
+		RBHChunkHeader header = seekChunk(BODY_MODEL_NORMALS);
+		stream.seek(header.getPosition() + offset);
+		
+		float[] xyz = new float[numNormals * 3];
+		stream.readFloats(xyz, numNormals, 12, 3);
+		
+		logger.debug("----------\r\nBODY 7 @" + offset + ":");
+		for (int i = 0; i < numNormals; i++) {
+			logger.debug(String.format(Locale.US, "vn %.6f %.6f %.6f", xyz[i * 3], xyz[i * 3 + 1], xyz[i * 3 + 2]));
+		}
+		logger.debug("");
+		
+		normalBlocks.put(offset, xyz);
+		return xyz;
+	}
+
+	private float[] readVertices(int offset) throws IOException { // BODY 8
+		float[] cached = vertexBlocks.get(offset);
+		if (cached != null) {
+			return cached;
+		}
+		
+		RBHChunkHeader header = seekChunk(BODY_MODEL_VERTICES);
+		stream.seek(header.getPosition() + offset);
+		
+		int numVerts = stream.readInt();
+		// x, y, z, 3 unknown floats, unknown int
+		float[] xyz = new float[numVerts * 3];
+		stream.readFloats(xyz, numVerts, 28, 3);
+		
+		logger.debug("----------\r\nBODY 8 @" + offset + ":");
+		for (int v = 0; v < numVerts; v++) {
+			xyz[v * 3 + 1] *= -1;
+			xyz[v * 3 + 2] *= -1;
+			
+			logger.debug(String.format(Locale.US, "v %.6f %.6f %.6f", xyz[v * 3], xyz[v * 3 + 1], xyz[v * 3 + 2]));
+		}
+		logger.debug("");
+		
+		vertexBlocks.put(offset, xyz);
+		return xyz;
+	}
+
+	public synchronized String[] getWaterTextureNames() throws IOException { // BODY extra
+		if (!isMap() || bodyChunkSize.length != 12) {
+			return new String[0];
+		}
+		if (waterTextureNames == null) {
+			RBHChunkHeader header = seekChunk(8);
+			
+			ArrayList<String> names = new ArrayList<String>();
+			while (stream.getPosition() != header.getEndPosition()) {
+				String textureName = stream.readString();
+				logger.debug(textureName);
+				names.add(textureName);
+			}
+			waterTextureNames = names.toArray(new String[names.size()]);
+		}
+		return waterTextureNames;
+	}
+
+	public synchronized int[] getTextureOffsets() throws IOException { // BODY 9
+		if (textureOffsets != null) {
+			return textureOffsets;
+		}
+		seekChunk(getTextureOffsetsChunk());
+		
+		int numTextures = stream.readShort();
+		int numSpecialTextures = stream.readShort();
+		int offset = stream.readInt();
+		int offsetSpecial = stream.readInt();
+		
+		textureOffsets = new int[numTextures];
+		stream.readInts(textureOffsets);
+		
+		textureOffsetsSpecial = new int[numSpecialTextures];
+		stream.readInts(textureOffsetsSpecial);
+		
+		logger.debug("Texture: " + numTextures + ", " + numSpecialTextures + ", " + offset + ", " + offsetSpecial);
+		
+		return textureOffsets;
+	}
+
+	public synchronized int[] getTextureOffsetsSpecial() throws IOException {
+		getTextureOffsets();
+		return textureOffsetsSpecial;
+	}
+
+	public synchronized int[] getMaterialIds() throws IOException { // BODY 10
+		if (materialIds != null) {
+			return materialIds;
+		}
+		int[] textureOffsets = getTextureOffsets();
+		RBHChunkHeader header = seekChunk(getTextureOffsetsChunk() + 1);
+		
+		materialIds = new int[textureOffsets.length];
+		for (int i = 0; i < materialIds.length; i++) {
+			materialIds[i] = stream.readShort(header.getPosition() + textureOffsets[i]);
+		}
+		return materialIds;
+	}
+
+	public void close() throws IOException {
+		stream.close();
+	}
+}
@@ -1,6 +1,5 @@
 package fileIO;
 
-import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -11,6 +10,11 @@ import fileIO.exceptions.GameResourceException;
 public class ResourceExtractor {
 
 	public static String extractGameResource(String filename) {
+		return extractGameResource(filename, false);
+	}
+
+	// pngOutput: bitmaps of a VRAM are written as .png instead of .bmp
+	public static String extractGameResource(String filename, boolean pngOutput) {
 		File file = new File(filename);
 		
 		filename = file.getName();
@@ -26,8 +30,9 @@ public class ResourceExtractor {
 		}
 		
 		try {
-			DataInputStream stream = new DataInputStream(new FileInputStream(file));
+			FileInputStream stream = new FileInputStream(file);
 			GameResourceReader reader = new GameResourceReader(stream);
+			reader.setPngOutput(pngOutput);
 			try {
 				reader.extractGameResource(outputDir);
 			} catch (GameResourceException e) {
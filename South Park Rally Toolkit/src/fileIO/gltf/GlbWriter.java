@@ -0,0 +1,416 @@
+package fileIO.gltf;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import entities.model.Model;
+import entities.model.Vertex;
+import entities.rbh.RBH;
+
+/*
+ * Binary glTF 2.0 export.
+ * Every welded vertex (see MeshWelder) is stored with interleaved position, face normal
+ * and texture coordinate (32 bytes). The triangles of the model (see Triangulator) become
+ * one primitive per material. Cars get a node per LOD with a child node per submodel
+ * and wheel, wheels are placed with a translation. Instances (see MeshInstances) have
+ * no data of their own, their nodes reference the mesh of the prototype.
+ */
+public class GlbWriter {
+
+	private static final int GLB_MAGIC = 0x46546C67; // glTF
+	private static final int CHUNK_JSON = 0x4E4F534A;
+	private static final int CHUNK_BIN = 0x004E4942;
+
+	private static final int VERTEX_STRIDE = 32;
+
+	private static final int ARRAY_BUFFER = 34962;
+	private static final int ELEMENT_ARRAY_BUFFER = 34963;
+	private static final int FLOAT = 5126;
+	private static final int UNSIGNED_SHORT = 5123;
+	private static final int UNSIGNED_INT = 5125;
+
+	// layout of one model in the binary chunk
+	private static class MeshLayout {
+		Model model;
+		boolean instance;
+		int meshIndex; // -1 if the model has no faces
+		int vertexOffset;
+		int numVertices;
+		int indexSize;
+		int[] indexOffset; // per material, -1 if not used
+		int[] indexCount;
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+	}
+
+	public static void outputModels(RBH rbh) throws IOException {
+		int numMaterials = getNumMaterials(rbh);
+		
+		List<MeshLayout> meshes = new ArrayList<MeshLayout>();
+		int binaryLength = 0;
+		int numMeshes = 0;
+		IdentityHashMap<Model, MeshLayout> prototypes = new IdentityHashMap<Model, MeshLayout>();
+		for (Model m : rbh.getModels()) {
+			MeshLayout mesh;
+			if (m.getInstanceOf() != null) {
+				mesh = new MeshLayout();
+				mesh.model = m;
+				mesh.instance = true;
+				mesh.meshIndex = prototypes.get(m.getInstanceOf()).meshIndex;
+			} else {
+				mesh = layout(m, numMaterials, binaryLength);
+				mesh.meshIndex = mesh.numVertices > 0 ? numMeshes++ : -1;
+				prototypes.put(m, mesh);
+				binaryLength = end(mesh);
+			}
+			meshes.add(mesh);
+		}
+		
+		byte[] json = pad(toJson(rbh, meshes, numMaterials, binaryLength).getBytes(StandardCharsets.UTF_8), (byte) ' ');
+		int binaryPadding = (4 - binaryLength % 4) % 4;
+		
+		FileOutputStream fos = new FileOutputStream(new File(rbh.getOutputDir() + rbh.getModelName() + ".glb"));
+		FileChannel channel = fos.getChannel();
+		
+		ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+		buf.order(ByteOrder.LITTLE_ENDIAN);
+		buf.putInt(GLB_MAGIC);
+		buf.putInt(2);
+		buf.putInt(12 + 8 + json.length + 8 + binaryLength + binaryPadding);
+		buf.putInt(json.length);
+		buf.putInt(CHUNK_JSON);
+		buf.flip();
+		channel.write(buf);
+		channel.write(ByteBuffer.wrap(json));
+		
+		buf.clear();
+		buf.putInt(binaryLength + binaryPadding);
+		buf.putInt(CHUNK_BIN);
+		
+		for (MeshLayout mesh : meshes) {
+			if (mesh.instance) {
+				continue;
+			}
+			buf = writeVertices(channel, buf, mesh.model);
+			buf = writeIndices(channel, buf, mesh, numMaterials);
+		}
+		for (int i = 0; i < binaryPadding; i++) {
+			buf = ensureCapacity(channel, buf, 1);
+			buf.put((byte) 0);
+		}
+		buf.flip();
+		channel.write(buf);
+		fos.close();
+	}
+
+	private static int getNumMaterials(RBH rbh) {
+		int numMaterials = rbh.getNumMaterials();
+		for (Model m : rbh.getModels()) {
+			numMaterials = Math.max(numMaterials, m.getNumMaterials());
+		}
+		return numMaterials;
+	}
+
+	private static MeshLayout layout(Model m, int numMaterials, int offset) {
+		MeshLayout mesh = new MeshLayout();
+		mesh.model = m;
+		mesh.vertexOffset = offset;
+		mesh.numVertices = m.getNumWeldedVertices();
+		mesh.indexSize = mesh.numVertices > 0xFFFF ? 4 : 2;
+		mesh.indexCount = new int[numMaterials];
+		mesh.indexOffset = new int[numMaterials];
+		
+		int[] materialOffsets = m.getMaterialOffsets();
+		for (int t = 0; t < m.getNumMaterials(); t++) {
+			mesh.indexCount[t] = materialOffsets[t + 1] - materialOffsets[t];
+		}
+		
+		offset += mesh.numVertices * VERTEX_STRIDE;
+		for (int t = 0; t < numMaterials; t++) {
+			if (mesh.indexCount[t] == 0) {
+				mesh.indexOffset[t] = -1;
+				continue;
+			}
+			mesh.indexOffset[t] = offset;
+			offset += align(mesh.indexCount[t] * mesh.indexSize);
+		}
+		
+		float[] verts = m.getVerts();
+		int[] vertexTable = m.getVertexTable();
+		for (int i = 0; i < vertexTable.length; i += 3) {
+			int v = vertexTable[i] * 3;
+			for (int c = 0; c < 3; c++) {
+				mesh.min[c] = Math.min(mesh.min[c], verts[v + c]);
+				mesh.max[c] = Math.max(mesh.max[c], verts[v + c]);
+			}
+		}
+		return mesh;
+	}
+
+	private static int end(MeshLayout mesh) {
+		int end = mesh.vertexOffset + mesh.numVertices * VERTEX_STRIDE;
+		for (int t = 0; t < mesh.indexOffset.length; t++) {
+			if (mesh.indexOffset[t] != -1) {
+				end = mesh.indexOffset[t] + align(mesh.indexCount[t] * mesh.indexSize);
+			}
+		}
+		return end;
+	}
+
+	private static int align(int length) {
+		return (length + 3) & ~3;
+	}
+
+	private static byte[] pad(byte[] data, byte padding) {
+		int length = align(data.length);
+		byte[] padded = new byte[length];
+		System.arraycopy(data, 0, padded, 0, data.length);
+		for (int i = data.length; i < length; i++) {
+			padded[i] = padding;
+		}
+		return padded;
+	}
+
+	private static ByteBuffer ensureCapacity(FileChannel channel, ByteBuffer buf, int n) throws IOException {
+		if (buf.remaining() < n) {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			buf.clear();
+		}
+		return buf;
+	}
+
+	private static ByteBuffer writeVertices(FileChannel channel, ByteBuffer buf, Model m) throws IOException {
+		float[] verts = m.getVerts();
+		float[] normals = m.getNormals();
+		float[] texCoords = m.getTexCoords();
+		int[] vertexTable = m.getVertexTable();
+		
+		for (int i = 0; i < vertexTable.length; i += 3) {
+			buf = ensureCapacity(channel, buf, VERTEX_STRIDE);
+			int v = vertexTable[i] * 3;
+			int t = vertexTable[i + 1] * 2;
+			int n = vertexTable[i + 2] * 3;
+			buf.putFloat(verts[v]);
+			buf.putFloat(verts[v + 1]);
+			buf.putFloat(verts[v + 2]);
+			buf.putFloat(normals[n]);
+			buf.putFloat(normals[n + 1]);
+			buf.putFloat(normals[n + 2]);
+			// OBJ texture coordinates start at the bottom, glTF at the top
+			buf.putFloat(texCoords[t]);
+			buf.putFloat(1 - texCoords[t + 1]);
+		}
+		return buf;
+	}
+
+	private static ByteBuffer writeIndices(FileChannel channel, ByteBuffer buf, MeshLayout mesh, int numMaterials) throws IOException {
+		int[] triangles = mesh.model.getTriangles();
+		int[] materialOffsets = mesh.model.getMaterialOffsets();
+		
+		for (int t = 0; t < numMaterials; t++) {
+			if (mesh.indexOffset[t] == -1) {
+				continue;
+			}
+			for (int i = materialOffsets[t]; i < materialOffsets[t + 1]; i++) {
+				buf = ensureCapacity(channel, buf, 4);
+				putIndex(buf, triangles[i], mesh.indexSize);
+			}
+			int padding = align(mesh.indexCount[t] * mesh.indexSize) - mesh.indexCount[t] * mesh.indexSize;
+			buf = ensureCapacity(channel, buf, padding);
+			for (int i = 0; i < padding; i++) {
+				buf.put((byte) 0);
+			}
+		}
+		return buf;
+	}
+
+	private static void putIndex(ByteBuffer buf, int index, int size) {
+		if (size == 2) {
+			buf.putShort((short) index);
+		} else {
+			buf.putInt(index);
+		}
+	}
+
+	private static String toJson(RBH rbh, List<MeshLayout> meshes, int numMaterials, int binaryLength) {
+		StringBuilder bufferViews = new StringBuilder();
+		StringBuilder accessors = new StringBuilder();
+		StringBuilder jsonMeshes = new StringBuilder();
+		int numBufferViews = 0;
+		int numAccessors = 0;
+		
+		for (int i = 0; i < meshes.size(); i++) {
+			MeshLayout mesh = meshes.get(i);
+			if (mesh.meshIndex == -1 || mesh.instance) {
+				continue;
+			}
+			
+			separate(bufferViews);
+			bufferViews.append("{\"buffer\":0,\"byteOffset\":").append(mesh.vertexOffset)
+				.append(",\"byteLength\":").append(mesh.numVertices * VERTEX_STRIDE)
+				.append(",\"byteStride\":").append(VERTEX_STRIDE)
+				.append(",\"target\":").append(ARRAY_BUFFER).append('}');
+			int vertexView = numBufferViews++;
+			
+			separate(accessors);
+			appendAccessor(accessors, vertexView, 0, FLOAT, mesh.numVertices, "VEC3", mesh.min, mesh.max);
+			int position = numAccessors++;
+			accessors.append(',');
+			appendAccessor(accessors, vertexView, 12, FLOAT, mesh.numVertices, "VEC3", null, null);
+			int normal = numAccessors++;
+			accessors.append(',');
+			appendAccessor(accessors, vertexView, 24, FLOAT, mesh.numVertices, "VEC2", null, null);
+			int texCoord = numAccessors++;
+			
+			separate(jsonMeshes);
+			jsonMeshes.append("{\"name\":\"").append(escape(getName(rbh, mesh.model, i))).append("\",\"primitives\":[");
+			StringBuilder primitives = new StringBuilder();
+			for (int t = 0; t < numMaterials; t++) {
+				if (mesh.indexOffset[t] == -1) {
+					continue;
+				}
+				bufferViews.append(",{\"buffer\":0,\"byteOffset\":").append(mesh.indexOffset[t])
+					.append(",\"byteLength\":").append(mesh.indexCount[t] * mesh.indexSize)
+					.append(",\"target\":").append(ELEMENT_ARRAY_BUFFER).append('}');
+				int indexView = numBufferViews++;
+				
+				accessors.append(',');
+				appendAccessor(accessors, indexView, 0, mesh.indexSize == 2 ? UNSIGNED_SHORT : UNSIGNED_INT, mesh.indexCount[t], "SCALAR", null, null);
+				int indices = numAccessors++;
+				
+				separate(primitives);
+				primitives.append("{\"attributes\":{\"POSITION\":").append(position)
+					.append(",\"NORMAL\":").append(normal)
+					.append(",\"TEXCOORD_0\":").append(texCoord)
+					.append("},\"indices\":").append(indices)
+					.append(",\"material\":").append(t).append('}');
+			}
+			jsonMeshes.append(primitives).append("]}");
+		}
+		
+		StringBuilder materials = new StringBuilder();
+		for (int i = 0; i < numMaterials; i++) {
+			separate(materials);
+			materials.append("{\"name\":\"").append(i + 1).append("\",\"pbrMetallicRoughness\":{\"metallicFactor\":0.0}");
+			if (i < rbh.getNumMaterials() && rbh.getMaterialId(i) != 0) {
+				// BMP is not a glTF image format, the texture is passed on like map_Kd in the .mtl
+				materials.append(",\"extras\":{\"map_Kd\":\"").append(String.format("%04d", rbh.getMaterialId(i))).append(".bmp\"}");
+			}
+			materials.append('}');
+		}
+		
+		StringBuilder nodes = new StringBuilder();
+		StringBuilder rootChildren = new StringBuilder();
+		int root = appendNodes(rbh, meshes, nodes, rootChildren);
+		separate(nodes);
+		nodes.append("{\"name\":\"").append(escape(rbh.getModelName())).append("\",\"children\":[").append(rootChildren).append("]}");
+		
+		StringBuilder json = new StringBuilder();
+		json.append("{\"asset\":{\"version\":\"2.0\",\"generator\":\"South Park Rally Toolkit\"}");
+		json.append(",\"scene\":0,\"scenes\":[{\"nodes\":[").append(root).append("]}]");
+		json.append(",\"nodes\":[").append(nodes).append(']');
+		if (jsonMeshes.length() > 0) {
+			json.append(",\"meshes\":[").append(jsonMeshes).append(']');
+			json.append(",\"accessors\":[").append(accessors).append(']');
+			json.append(",\"bufferViews\":[").append(bufferViews).append(']');
+			json.append(",\"buffers\":[{\"byteLength\":").append(binaryLength).append("}]");
+		}
+		if (numMaterials > 0) {
+			json.append(",\"materials\":[").append(materials).append(']');
+		}
+		json.append('}');
+		
+		return json.toString();
+	}
+
+	/*
+	 * Model i is node i. Cars get one extra node per LOD after the model nodes,
+	 * the root node is added last by the caller. Returns the number of nodes written.
+	 */
+	private static int appendNodes(RBH rbh, List<MeshLayout> meshes, StringBuilder nodes, StringBuilder rootChildren) {
+		for (int i = 0; i < meshes.size(); i++) {
+			Model m = meshes.get(i).model;
+			separate(nodes);
+			nodes.append("{\"name\":\"").append(escape(getName(rbh, m, i))).append('"');
+			if (meshes.get(i).meshIndex != -1) {
+				nodes.append(",\"mesh\":").append(meshes.get(i).meshIndex);
+			}
+			if (m.isWheel() && m.getWheelPosition() != null) {
+				Vertex p = m.getWheelPosition();
+				nodes.append(",\"translation\":[").append(p.x).append(',').append(p.y).append(',').append(p.z).append(']');
+			}
+			nodes.append('}');
+		}
+		
+		if (rbh.isMap()) {
+			for (int i = 0; i < meshes.size(); i++) {
+				separate(rootChildren);
+				rootChildren.append(i);
+			}
+			return meshes.size();
+		}
+		
+		int numNodes = meshes.size();
+		for (int lodIndex = 0; lodIndex < rbh.getNumLods(); lodIndex++) {
+			StringBuilder children = new StringBuilder();
+			for (int i = 0; i < meshes.size(); i++) {
+				if (meshes.get(i).model.getLodIndex() == lodIndex) {
+					separate(children);
+					children.append(i);
+				}
+			}
+			if (children.length() == 0) {
+				continue; // LOD not extracted
+			}
+			separate(nodes);
+			nodes.append("{\"name\":\"LOD ").append(lodIndex).append("\",\"children\":[").append(children).append("]}");
+			separate(rootChildren);
+			rootChildren.append(numNodes++);
+		}
+		return numNodes;
+	}
+
+	private static String getName(RBH rbh, Model m, int modelIndex) {
+		if (rbh.isMap()) {
+			return rbh.getModelName() + "_" + modelIndex;
+		}
+		if (m.isWheel()) {
+			return rbh.getModelName() + "_" + m.getLodIndex() + "_wheel_" + m.getWheelIndex();
+		}
+		return rbh.getModelName() + "_" + m.getLodIndex() + "_" + m.getSubModelIndex();
+	}
+
+	private static void appendAccessor(StringBuilder sb, int bufferView, int byteOffset, int componentType, int count, String type, float[] min, float[] max) {
+		sb.append("{\"bufferView\":").append(bufferView)
+			.append(",\"byteOffset\":").append(byteOffset)
+			.append(",\"componentType\":").append(componentType)
+			.append(",\"count\":").append(count)
+			.append(",\"type\":\"").append(type).append('"');
+		if (min != null) {
+			sb.append(",\"min\":[").append(min[0]).append(',').append(min[1]).append(',').append(min[2])
+				.append("],\"max\":[").append(max[0]).append(',').append(max[1]).append(',').append(max[2]).append(']');
+		}
+		sb.append('}');
+	}
+
+	private static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private static void separate(StringBuilder sb) {
+		if (sb.length() > 0) {
+			sb.append(',');
+		}
+	}
+}
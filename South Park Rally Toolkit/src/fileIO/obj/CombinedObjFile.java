@@ -0,0 +1,119 @@
+package fileIO.obj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+
+import entities.model.Model;
+import entities.model.Vertex;
+
+/*
+ * OBJ file with several models, one group per model. The vertices are written directly,
+ * texture coordinates, normals and faces are collected and appended by close.
+ * Instances (see MeshInstances) reuse the texture coordinates and normals of the first
+ * model with the same geometry in this file, and its vertices unless they are placed elsewhere.
+ */
+class CombinedObjFile {
+
+	private ObjEncoder writer;
+	private String groupPrefix;
+
+	// sections that follow the vertices
+	private ObjEncoder allTexCoords = new ObjEncoder();
+	private ObjEncoder allNormals = new ObjEncoder();
+	private ObjEncoder allFaces = new ObjEncoder();
+
+	private int vertOffset;
+	private int texCoordOffset;
+	private int normalOffset;
+
+	// the geometry written for a prototype (or a model without prototype)
+	private static class Section {
+		int vertOffset;
+		int texCoordOffset;
+		int normalOffset;
+		int groupIndex;
+		Vertex translation;
+	}
+
+	private IdentityHashMap<Model, Section> sections = new IdentityHashMap<Model, Section>();
+
+	public CombinedObjFile(File file, String mtllib, String groupPrefix) throws IOException {
+		this.writer = new ObjEncoder(file);
+		this.groupPrefix = groupPrefix;
+		
+		writer.write("mtllib " + mtllib);
+		writer.newLine();
+		writer.newLine();
+	}
+
+	/*
+	 * Adds the model as group groupPrefix_(groupIndex + 1). verts, texCoords and normals are
+	 * the already encoded (untranslated) data of the model, they are encoded here if null.
+	 */
+	public void add(Model m, int groupIndex, ObjEncoder verts, ObjEncoder texCoords, ObjEncoder normals) throws IOException {
+		Model key = m.getInstanceOf() != null ? m.getInstanceOf() : m;
+		Vertex translation = ObjWriter.getTranslation(m);
+		
+		allFaces.write("g " + groupPrefix + "_" + (groupIndex + 1));
+		allFaces.newLine();
+		
+		Section section = sections.get(key);
+		if (section != null) {
+			int instanceVertOffset = section.vertOffset;
+			if (!ObjWriter.samePosition(translation, section.translation)) {
+				ObjWriter.writeVertices(writer, "v", m.getVerts(), translation);
+				instanceVertOffset = vertOffset;
+				vertOffset += m.getNumVerts();
+			}
+			
+			allFaces.write("# instance of " + groupPrefix + "_" + (section.groupIndex + 1));
+			allFaces.newLine();
+			ObjWriter.writeFaces(allFaces, m, instanceVertOffset, section.texCoordOffset, section.normalOffset);
+			return;
+		}
+		
+		section = new Section();
+		section.vertOffset = vertOffset;
+		section.texCoordOffset = texCoordOffset;
+		section.normalOffset = normalOffset;
+		section.groupIndex = groupIndex;
+		section.translation = translation;
+		sections.put(key, section);
+		
+		if (translation != null || verts == null) {
+			ObjWriter.writeVertices(writer, "v", m.getVerts(), translation);
+		} else {
+			verts.writeTo(writer);
+		}
+		if (texCoords != null) {
+			texCoords.writeTo(allTexCoords);
+		} else {
+			ObjWriter.writeTexCoords(allTexCoords, m.getTexCoords());
+		}
+		if (normals != null) {
+			normals.writeTo(allNormals);
+		} else {
+			ObjWriter.writeVertices(allNormals, "vn", m.getNormals(), null);
+		}
+		
+		ObjWriter.writeFaces(allFaces, m, vertOffset, texCoordOffset, normalOffset);
+		
+		vertOffset += m.getNumVerts();
+		texCoordOffset += m.getNumTexCoords();
+		normalOffset += m.getNumNormals();
+	}
+
+	public void close() throws IOException {
+		writer.newLine();
+		
+		allTexCoords.writeTo(writer);
+		writer.newLine();
+		
+		allNormals.writeTo(writer);
+		writer.newLine();
+		
+		allFaces.writeTo(writer);
+		writer.close();
+	}
+}
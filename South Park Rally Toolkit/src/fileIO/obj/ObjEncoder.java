@@ -0,0 +1,180 @@
+package fileIO.obj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/*
+ * Writes OBJ text into a reusable byte buffer without creating strings per value.
+ * Floats are written exactly like String.format(Locale.US, "%.6f", value).
+ */
+public class ObjEncoder {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+
+	private OutputStream stream;
+	private ByteArrayOutputStream memory;
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int count;
+
+	public ObjEncoder(File file) throws IOException {
+		this(new FileOutputStream(file));
+	}
+
+	public ObjEncoder(OutputStream stream) {
+		this.stream = stream;
+	}
+
+	// encodes into memory, the result can be copied into other encoders with writeTo
+	public ObjEncoder() {
+		this.memory = new ByteArrayOutputStream(BUFFER_SIZE);
+		this.stream = memory;
+	}
+
+	public void writeTo(ObjEncoder target) throws IOException {
+		flush();
+		target.flush();
+		memory.writeTo(target.stream);
+	}
+
+	// discard the encoded data of an in-memory encoder
+	public void reset() {
+		count = 0;
+		memory.reset();
+	}
+
+	private void ensureCapacity(int n) throws IOException {
+		if (count + n > buffer.length) {
+			flush();
+		}
+	}
+
+	public void write(char c) throws IOException {
+		ensureCapacity(1);
+		buffer[count++] = (byte) c;
+	}
+
+	// ASCII only
+	public void write(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			write(s.charAt(i));
+		}
+	}
+
+	public void write(byte[] b, int offset, int length) throws IOException {
+		if (length > buffer.length - count) {
+			flush();
+			if (length > buffer.length) {
+				stream.write(b, offset, length);
+				return;
+			}
+		}
+		System.arraycopy(b, offset, buffer, count, length);
+		count += length;
+	}
+
+	public void newLine() throws IOException {
+		write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+	}
+
+	public void writeInt(int value) throws IOException {
+		ensureCapacity(11);
+		if (value < 0) {
+			buffer[count++] = '-';
+			writeDigits(-(long) value, 1);
+		} else {
+			writeDigits(value, 1);
+		}
+	}
+
+	// writes at least minDigits digits, padded with leading zeros
+	private void writeDigits(long value, int minDigits) {
+		int n = 1;
+		for (long v = value / 10; v != 0; v /= 10) {
+			n++;
+		}
+		n = Math.max(n, minDigits);
+		for (int i = count + n - 1; i >= count; i--) {
+			buffer[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		count += n;
+	}
+
+	public void writeFloat(float value) throws IOException {
+		ensureCapacity(32);
+		
+		long scaled = scale(value);
+		if (scaled < 0) {
+			write(String.format(Locale.US, "%.6f", value));
+			return;
+		}
+		
+		if (Float.floatToRawIntBits(value) < 0) {
+			buffer[count++] = '-';
+		}
+		writeDigits(scaled / 1000000, 1);
+		buffer[count++] = '.';
+		writeDigits(scaled % 1000000, 6);
+	}
+
+	/*
+	 * Returns |value| * 10^6 rounded half-up, or -1 if the fast path can not guarantee
+	 * the same result as Formatter: NaN, infinity, very large values and values that are
+	 * so close to a rounding tie that the shortest decimal representation used by
+	 * Formatter could round the other way.
+	 */
+	private static long scale(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int exponent = (bits >>> 23) & 0xFF;
+		int mantissa = bits & 0x7FFFFF;
+		
+		if (exponent == 0xFF) {
+			return -1;
+		}
+		if (exponent == 0) {
+			exponent = 1;
+		} else {
+			mantissa |= 0x800000;
+		}
+		if (mantissa == 0) {
+			return 0;
+		}
+		
+		// |value| = mantissa * 2^shift
+		int shift = exponent - 150;
+		long numerator = mantissa * 1000000L; // < 2^44
+		
+		if (shift >= 0) {
+			return shift > 18 ? -1 : numerator << shift;
+		}
+		
+		int k = -shift;
+		if (k > 62) {
+			return 0; // < 2^-18, far below 0.5
+		}
+		
+		long quotient = numerator >>> k;
+		long remainder = numerator - (quotient << k);
+		double fraction = remainder / (double) (1L << k);
+		
+		if (Math.abs(fraction - 0.5) <= (quotient + 1) * 1e-15) {
+			return -1;
+		}
+		return fraction > 0.5 ? quotient + 1 : quotient;
+	}
+
+	public void flush() throws IOException {
+		stream.write(buffer, 0, count);
+		count = 0;
+	}
+
+	public void close() throws IOException {
+		flush();
+		stream.close();
+	}
+}
@@ -1,193 +1,258 @@
 package fileIO.obj;
 
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 
-import entities.model.Face;
 import entities.model.Model;
-import entities.model.Normal;
-import entities.model.TexCoord;
+import entities.model.SpatialGrid;
 import entities.model.Vertex;
 import entities.rbh.RBH;
 
 public class ObjWriter {
 
 	public static void outputMaterialsFile(RBH rbh) throws IOException {
-		FileWriter writer = new FileWriter(new File(rbh.getOutputDir() + rbh.getModelName() + ".mtl"));
+		ObjEncoder writer = new ObjEncoder(new File(rbh.getOutputDir() + rbh.getModelName() + ".mtl"));
 		
 		for (int i = 0; i < rbh.getNumMaterials(); i++) {
 			writer.write("newmtl " + (i + 1));
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			writer.write("Ka 1.0 1.0 1.0");
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			writer.write("Kd 1.0 1.0 1.0");
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			writer.write("Ks 0.0 0.0 0.0");
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			writer.write("d 1.0");
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			writer.write("illum 2");
-			writer.write(System.lineSeparator());
+			writer.newLine();
 			
 			if (rbh.getMaterialId(i) != 0) {
 				writer.write("map_Kd " + String.format("%04d", rbh.getMaterialId(i)) + ".bmp");
-				writer.write(System.lineSeparator());
+				writer.newLine();
 			}
 			
-			writer.write(System.lineSeparator());
+			writer.newLine();
 		}
 		
 		writer.close();
 	}
 
-	public static void outputSingleModels(RBH rbh) throws IOException {
+	/*
+	 * Writes every model to its own file and all models to one combined file.
+	 * Vertices, texture coordinates and normals of a model are encoded once and copied
+	 * into both files, only the wheel vertices (moved to their position) and the face
+	 * lines (with global indices) are encoded again for the combined file.
+	 */
+	public static void outputModels(RBH rbh) throws IOException {
+		CombinedObjFile combined = new CombinedObjFile(new File(rbh.getOutputDir() + rbh.getModelName() + ".obj"), rbh.getModelName() + ".mtl", rbh.getModelName());
 		
-		int modelIndex = 0;
+		ObjEncoder verts = new ObjEncoder();
+		ObjEncoder texCoords = new ObjEncoder();
+		ObjEncoder normals = new ObjEncoder();
+		ObjEncoder faces = new ObjEncoder();
 		
+		int modelIndex = 0;
 		for (Model m : rbh.getModels()) {
+			verts.reset();
+			texCoords.reset();
+			normals.reset();
+			faces.reset();
 			
-			String name = rbh.getModelName() + "_";
+			writeVertices(verts, "v", m.getVerts(), null);
+			writeTexCoords(texCoords, m.getTexCoords());
+			writeVertices(normals, "vn", m.getNormals(), null);
+			writeFaces(faces, m, 0, 0, 0);
 			
-			if (rbh.isMap()) {
-				name += modelIndex + ".obj";
-				modelIndex++;
-			} else {
-				name = rbh.getModelName() + "_" + m.getLodIndex() + "_";
-				if (m.isWheel()) {
-					name += "wheel_" + m.getWheelIndex() + ".obj";
-				} else {
-					name += m.getSubModelIndex() + ".obj";
-				}
-			}
+			outputSingleModel(rbh, m, modelIndex, verts, texCoords, normals, faces);
+			combined.add(m, modelIndex, verts, texCoords, normals);
 			
-			FileWriter writer = new FileWriter(new File(rbh.getOutputDir() + name));
-			writer.write("mtllib " + rbh.getModelName()  + ".mtl");
-			writer.write(System.lineSeparator());
-			writer.write(System.lineSeparator());
+			modelIndex++;
+		}
+		combined.close();
+	}
+
+	/*
+	 * Writes the models of every grid cell to <name>_cell_<x>_<z>.obj (groups keep the index
+	 * of the model in the combined file) and the cells to the index file <name>.grid,
+	 * little endian: "GRID", version, cell size, number of cells, then for every cell
+	 * x, z, min x, y, z, max x, y, z, file size, number of models, the model indices,
+	 * length of the file name (short) and the file name.
+	 */
+	public static void outputGrid(RBH rbh, SpatialGrid grid) throws IOException {
+		List<Model> models = rbh.getModels();
+		List<SpatialGrid.Cell> cells = grid.getCells();
+		
+		int size = 16;
+		String[] names = new String[cells.size()];
+		for (int i = 0; i < cells.size(); i++) {
+			SpatialGrid.Cell cell = cells.get(i);
+			names[i] = rbh.getModelName() + "_cell_" + cell.getX() + "_" + cell.getZ() + ".obj";
+			size += 42 + cell.getModelIndices().size() * 4 + names[i].length();
+		}
+		
+		ByteBuffer index = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		index.put("GRID".getBytes(StandardCharsets.US_ASCII));
+		index.putInt(1);
+		index.putFloat(grid.getCellSize());
+		index.putInt(cells.size());
+		
+		for (int i = 0; i < cells.size(); i++) {
+			SpatialGrid.Cell cell = cells.get(i);
+			File file = new File(rbh.getOutputDir() + names[i]);
 			
-			// Write Vertices
-			for (Vertex v : m.getVerts()) {
-				writer.write(v.toString());
-				writer.write(System.lineSeparator());
+			CombinedObjFile cellFile = new CombinedObjFile(file, rbh.getModelName() + ".mtl", rbh.getModelName());
+			for (int modelIndex : cell.getModelIndices()) {
+				cellFile.add(models.get(modelIndex), modelIndex, null, null, null);
 			}
-			writer.write(System.lineSeparator());
+			cellFile.close();
 			
-			// Write Texture Coordinates
-			for (TexCoord vt : m.getTexCoords()) {
-				writer.write(vt.toString());
-				writer.write(System.lineSeparator());
+			index.putInt(cell.getX());
+			index.putInt(cell.getZ());
+			for (float f : cell.getMin()) {
+				index.putFloat(f);
 			}
-			writer.write(System.lineSeparator());
-			
-			// Write Face Normals
-			for (Normal vn : m.getNormals()) {
-				writer.write(vn.toString());
-				writer.write(System.lineSeparator());
+			for (float f : cell.getMax()) {
+				index.putFloat(f);
 			}
-			writer.write(System.lineSeparator());
-			
-			// Write Faces
-			writer.write("g " + rbh.getModelName());
-			writer.write(System.lineSeparator());
-			
-			int lastTexId = -1;
-			int globalVertOffset = 0;
-			for (Face f : m.getFaces()) {
-				int texId = f.getTexId();
-				if (texId != lastTexId) {
-					lastTexId = texId;
-					writer.write("usemtl " + (texId + 1));
-					writer.write(System.lineSeparator());
-				}
-				writer.write(f.toString(globalVertOffset));
-				writer.write(System.lineSeparator());
-				
-				globalVertOffset += f.getNumVerts();
+			index.putInt((int) file.length());
+			index.putInt(cell.getModelIndices().size());
+			for (int modelIndex : cell.getModelIndices()) {
+				index.putInt(modelIndex);
 			}
-			writer.write(System.lineSeparator());
-			
-			writer.close();
+			index.putShort((short) names[i].length());
+			index.put(names[i].getBytes(StandardCharsets.US_ASCII));
 		}
+		
+		FileOutputStream out = new FileOutputStream(rbh.getOutputDir() + rbh.getModelName() + ".grid");
+		out.write(index.array());
+		out.close();
 	}
 
-	public static void outputModels(RBH rbh) throws IOException {
-		FileWriter writer = new FileWriter(new File(rbh.getOutputDir() + rbh.getModelName() + ".obj"));
-		writer.write("mtllib " + rbh.getModelName() + ".mtl");
-		writer.write(System.lineSeparator());
-		writer.write(System.lineSeparator());
+	static Vertex getTranslation(Model m) {
+		return m.isWheel() ? m.getWheelPosition() : null;
+	}
+
+	// exact comparison, the written coordinates have to be identical
+	static boolean samePosition(Vertex a, Vertex b) {
+		if (a == null || b == null) {
+			return a == b;
+		}
+		return Float.floatToIntBits(a.x) == Float.floatToIntBits(b.x)
+			&& Float.floatToIntBits(a.y) == Float.floatToIntBits(b.y)
+			&& Float.floatToIntBits(a.z) == Float.floatToIntBits(b.z);
+	}
+
+	private static void outputSingleModel(RBH rbh, Model m, int modelIndex, ObjEncoder verts, ObjEncoder texCoords, ObjEncoder normals, ObjEncoder faces) throws IOException {
+		String name = rbh.getModelName() + "_";
 		
-		// Write Vertices
-		for (Model m : rbh.getModels()) {
+		if (rbh.isMap()) {
+			name += modelIndex + ".obj";
+		} else {
+			name += m.getLodIndex() + "_";
 			if (m.isWheel()) {
-				Vertex wheelPosition = m.getWheelPosition();
-				for (Vertex v : m.getVerts()) {
-					v.add(wheelPosition);
-					writer.write(v.toString());
-					writer.write(System.lineSeparator());
-				}
+				name += "wheel_" + m.getWheelIndex() + ".obj";
 			} else {
-				for (Vertex v : m.getVerts()) {
-					writer.write(v.toString());
-					writer.write(System.lineSeparator());
-				}
+				name += m.getSubModelIndex() + ".obj";
 			}
 		}
-		writer.write(System.lineSeparator());
+		
+		ObjEncoder writer = new ObjEncoder(new File(rbh.getOutputDir() + name));
+		writer.write("mtllib " + rbh.getModelName()  + ".mtl");
+		writer.newLine();
+		writer.newLine();
+		
+		// Write Vertices
+		verts.writeTo(writer);
+		writer.newLine();
 		
 		// Write Texture Coordinates
-		for (Model m : rbh.getModels()) {
-			for (TexCoord tc : m.getTexCoords()) {
-				writer.write(tc.toString());
-				writer.write(System.lineSeparator());
-			}
-		}
-		writer.write(System.lineSeparator());
+		texCoords.writeTo(writer);
+		writer.newLine();
 		
 		// Write Face Normals
-		for (Model m : rbh.getModels()) {
-			for (Normal vn : m.getNormals()) {
-				writer.write(vn.toString());
-				writer.write(System.lineSeparator());
+		normals.writeTo(writer);
+		writer.newLine();
+		
+		// Write Faces
+		writer.write("g " + rbh.getModelName());
+		writer.newLine();
+		
+		faces.writeTo(writer);
+		writer.newLine();
+		
+		writer.close();
+	}
+
+	// x, y, z triples, translated by offset if not null (the model itself is not changed)
+	static void writeVertices(ObjEncoder writer, String type, float[] xyz, Vertex offset) throws IOException {
+		for (int i = 0; i < xyz.length; i += 3) {
+			writer.write(type);
+			writer.write(' ');
+			if (offset != null) {
+				writer.writeFloat(xyz[i] + offset.x);
+				writer.write(' ');
+				writer.writeFloat(xyz[i + 1] + offset.y);
+				writer.write(' ');
+				writer.writeFloat(xyz[i + 2] + offset.z);
+			} else {
+				writer.writeFloat(xyz[i]);
+				writer.write(' ');
+				writer.writeFloat(xyz[i + 1]);
+				writer.write(' ');
+				writer.writeFloat(xyz[i + 2]);
 			}
+			writer.newLine();
 		}
-		writer.write(System.lineSeparator());
+	}
+
+	static void writeTexCoords(ObjEncoder writer, float[] uv) throws IOException {
+		for (int i = 0; i < uv.length; i += 2) {
+			writer.write("vt ");
+			writer.writeFloat(uv[i]);
+			writer.write(' ');
+			writer.writeFloat(uv[i + 1]);
+			writer.newLine();
+		}
+	}
+
+	// the face corners are written in reverse order
+	static void writeFaces(ObjEncoder writer, Model m, int vertOffset, int texCoordOffset, int normalOffset) throws IOException {
+		int[] triangles = m.getTriangles();
+		int[] materialOffsets = m.getMaterialOffsets();
+		int[] vertexTable = m.getVertexTable();
 		
-		// Write Faces
-		int modelIndex = 1;
-		int globalVertOffset = 0;
-		int globalNormalOffset = 0;
-		int globalTexCoordOffset = 0;
-		for (Model m : rbh.getModels()) {
-			writer.write("g " + rbh.getModelName() + "_" + modelIndex);
-			writer.write(System.lineSeparator());
+		for (int t = 0; t < m.getNumMaterials(); t++) {
+			if (materialOffsets[t] == materialOffsets[t + 1]) {
+				continue;
+			}
+			writer.write("usemtl ");
+			writer.writeInt(t + 1);
+			writer.newLine();
 			
-			int lastTexId = -1;
-			int vertOffset = globalVertOffset;
-			for (Face f : m.getFaces()) {
-				int texId = f.getTexId();
-				
-				if (texId != lastTexId) {
-					lastTexId = texId;
-					writer.write("usemtl " + (texId + 1));
-					writer.write(System.lineSeparator());
+			for (int i = materialOffsets[t]; i < materialOffsets[t + 1]; i += 3) {
+				writer.write('f');
+				for (int j = i; j < i + 3; j++) {
+					int v = triangles[j] * 3;
+					writer.write(' ');
+					writer.writeInt(vertOffset + vertexTable[v] + 1);
+					writer.write('/');
+					writer.writeInt(texCoordOffset + vertexTable[v + 1] + 1);
+					writer.write('/');
+					writer.writeInt(normalOffset + vertexTable[v + 2] + 1);
 				}
-				
-				writer.write(f.toString(vertOffset, globalTexCoordOffset, globalNormalOffset));
-				writer.write(System.lineSeparator());
-				
+				writer.newLine();
 			}
-			
-			modelIndex++;
-			globalVertOffset += m.getNumVerts();
-			globalNormalOffset += m.getNumNormals();
-			globalTexCoordOffset += m.getNumTexCoords();
 		}
-		writer.close();
 	}
 }
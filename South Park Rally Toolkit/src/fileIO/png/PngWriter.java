@@ -0,0 +1,300 @@
+package fileIO.png;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import entities.Bitmap;
+import entities.PixelKernels;
+
+/*
+ * PNG export of VRAM bitmaps and their mipmaps.
+ * 4 and 8 bit bitmaps stay indexed (colortable as PLTE), 16 and 32 bit bitmaps are expanded
+ * to RGBA with their bitfields, 24 bit bitmaps are written as RGB.
+ * The filtered image data is split into blocks of BLOCK_SIZE bytes that are deflated in
+ * parallel (like pigz): every block is primed with the last 32 KB of the previous block
+ * and ends with a sync flush, so the compressed blocks form one zlib stream.
+ */
+public class PngWriter {
+
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+	private static final int BLOCK_SIZE = 128 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private static final int COLOR_TYPE_RGB = 2;
+	private static final int COLOR_TYPE_INDEXED = 3;
+	private static final int COLOR_TYPE_RGBA = 6;
+
+	private static final int FILTER_NONE = 0;
+	private static final int FILTER_SUB = 1;
+	private static final int FILTER_UP = 2;
+	private static final int FILTER_AVERAGE = 3;
+	private static final int FILTER_PAETH = 4;
+
+	// same file names as Bitmap.writeToFile with .png
+	public static void outputBitmap(Bitmap bitmap, String outputDir) throws IOException {
+		writeLevel(bitmap, 0, new File(outputDir + bitmap.getPaddedIndex() + ".png"));
+		
+		for (int i = 0; i < bitmap.getMipmaps().size(); i++) {
+			writeLevel(bitmap, i + 1, new File(outputDir + bitmap.getPaddedIndex() + ".mipmap" + (i + 1) + ".png"));
+		}
+	}
+
+	private static void writeLevel(Bitmap bitmap, int level, File file) throws IOException {
+		int width = bitmap.getWidth() >> level;
+		int height = bitmap.getHeight() >> level;
+		int colorDepth = bitmap.getColorDepth();
+		if (width == 0 || height == 0) {
+			return;
+		}
+		
+		byte[] pixels = bitmap.getLevelPixels(level);
+		int colorType;
+		int bytesPerPixel;
+		byte[] image;
+		
+		if (colorDepth <= 8) {
+			colorType = COLOR_TYPE_INDEXED;
+			bytesPerPixel = 1;
+			image = pixels;
+		} else if (colorDepth == 24) {
+			colorType = COLOR_TYPE_RGB;
+			bytesPerPixel = 3;
+			image = new byte[pixels.length];
+			for (int i = 0; i + 3 <= pixels.length; i += 3) { // BGR -> RGB
+				image[i] = pixels[i + 2];
+				image[i + 1] = pixels[i + 1];
+				image[i + 2] = pixels[i];
+			}
+		} else {
+			colorType = COLOR_TYPE_RGBA;
+			bytesPerPixel = 4;
+			int[] masks = getMasks(bitmap.getBitFields(), colorDepth);
+			if (colorDepth == 16) {
+				image = new byte[pixels.length * 2];
+				PixelKernels.expand16(pixels, image, masks);
+			} else {
+				image = new byte[pixels.length];
+				PixelKernels.expand32(pixels, image, masks);
+			}
+		}
+		
+		int rowLength = (width * (colorDepth <= 8 ? colorDepth : bytesPerPixel * 8) + 7) / 8;
+		byte[] filtered = filter(image, height, rowLength, bytesPerPixel, colorType != COLOR_TYPE_INDEXED);
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.write(SIGNATURE);
+			
+			ByteArrayOutputStream header = new ByteArrayOutputStream();
+			DataOutputStream h = new DataOutputStream(header);
+			h.writeInt(width);
+			h.writeInt(height);
+			h.writeByte(colorDepth <= 8 ? colorDepth : 8);
+			h.writeByte(colorType);
+			h.writeByte(0); // deflate
+			h.writeByte(0); // adaptive filtering
+			h.writeByte(0); // no interlace
+			writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+			
+			if (colorType == COLOR_TYPE_INDEXED) {
+				// the colortable is stored as B, G, R, reserved
+				byte[] ct = bitmap.getColortable();
+				byte[] palette = new byte[ct.length / 4 * 3];
+				for (int i = 0; i < ct.length / 4; i++) {
+					palette[i * 3] = ct[i * 4 + 2];
+					palette[i * 3 + 1] = ct[i * 4 + 1];
+					palette[i * 3 + 2] = ct[i * 4];
+				}
+				writeChunk(out, "PLTE", palette, 0, palette.length);
+			}
+			
+			for (byte[] block : deflate(filtered)) {
+				writeChunk(out, "IDAT", block, 0, block.length);
+			}
+			writeChunk(out, "IEND", new byte[0], 0, 0);
+		} finally {
+			out.close();
+		}
+	}
+
+	// masks in A, R, G, B order, the bitfields of a VRAM bitmap are R, G, B, A
+	private static int[] getMasks(byte[] bitFields, int colorDepth) {
+		int[] masks = new int[4];
+		boolean empty = true;
+		for (int i = 0; i < 4; i++) {
+			int o = ((i + 3) % 4) * 4;
+			masks[i] = (bitFields[o] & 0xFF) | ((bitFields[o + 1] & 0xFF) << 8)
+				| ((bitFields[o + 2] & 0xFF) << 16) | ((bitFields[o + 3] & 0xFF) << 24);
+			if (masks[i] != 0) {
+				empty = false;
+			}
+		}
+		if (!empty) {
+			return masks;
+		}
+		if (colorDepth == 16) {
+			return PixelKernels.getMasks16(new byte[16]);
+		}
+		return new int[] { 0, 0x00FF0000, 0x0000FF00, 0x000000FF }; // B, G, R, unused
+	}
+
+	/*
+	 * Prepends the filter type to every row. Indexed rows are not filtered, other rows use the
+	 * filter with the minimum sum of absolute differences. Rows are filtered in parallel for
+	 * large images (every row only depends on the unfiltered previous row).
+	 */
+	private static byte[] filter(byte[] image, int height, int rowLength, int bytesPerPixel, boolean adaptive) {
+		byte[] filtered = new byte[height * (rowLength + 1)];
+		
+		IntStream rows = IntStream.range(0, height);
+		if (filtered.length > BLOCK_SIZE) {
+			rows = rows.parallel();
+		}
+		rows.forEach(y -> {
+			int out = y * (rowLength + 1);
+			if (!adaptive) {
+				filtered[out] = FILTER_NONE;
+				System.arraycopy(image, y * rowLength, filtered, out + 1, rowLength);
+				return;
+			}
+			
+			// candidates are written to a scratch row, the best one is filtered again into place
+			byte[] scratch = new byte[rowLength];
+			int best = FILTER_NONE;
+			long bestSum = Long.MAX_VALUE;
+			for (int type = FILTER_NONE; type <= FILTER_PAETH; type++) {
+				long sum = filterRow(image, y, rowLength, bytesPerPixel, type, scratch, 0);
+				if (sum < bestSum) {
+					bestSum = sum;
+					best = type;
+				}
+			}
+			
+			filtered[out] = (byte) best;
+			filterRow(image, y, rowLength, bytesPerPixel, best, filtered, out + 1);
+		});
+		return filtered;
+	}
+
+	// returns the sum of the absolute (signed) filtered bytes
+	private static long filterRow(byte[] image, int y, int rowLength, int bytesPerPixel, int type, byte[] dst, int offset) {
+		int row = y * rowLength;
+		int prev = row - rowLength;
+		long sum = 0;
+		
+		for (int x = 0; x < rowLength; x++) {
+			int value = image[row + x] & 0xFF;
+			int left = x >= bytesPerPixel ? image[row + x - bytesPerPixel] & 0xFF : 0;
+			int up = y > 0 ? image[prev + x] & 0xFF : 0;
+			
+			int predictor;
+			switch (type) {
+			case FILTER_SUB:
+				predictor = left;
+				break;
+			case FILTER_UP:
+				predictor = up;
+				break;
+			case FILTER_AVERAGE:
+				predictor = (left + up) >> 1;
+				break;
+			case FILTER_PAETH:
+				int upLeft = x >= bytesPerPixel && y > 0 ? image[prev + x - bytesPerPixel] & 0xFF : 0;
+				int p = left + up - upLeft;
+				int pa = Math.abs(p - left);
+				int pb = Math.abs(p - up);
+				int pc = Math.abs(p - upLeft);
+				predictor = pa <= pb && pa <= pc ? left : pb <= pc ? up : upLeft;
+				break;
+			default:
+				predictor = 0;
+			}
+			
+			byte b = (byte) (value - predictor);
+			dst[offset + x] = b;
+			sum += Math.abs(b);
+		}
+		return sum;
+	}
+
+	/*
+	 * zlib stream of the data in one or more parts (one IDAT chunk each). The first part
+	 * starts with the zlib header, the last one ends with the Adler-32 checksum.
+	 */
+	private static byte[][] deflate(byte[] data) {
+		int numBlocks = Math.max(1, (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		byte[][] blocks = new byte[numBlocks][];
+		
+		IntStream indices = IntStream.range(0, numBlocks);
+		if (numBlocks > 1) {
+			indices = indices.parallel();
+		}
+		indices.forEach(i -> {
+			int start = i * BLOCK_SIZE;
+			int length = Math.min(BLOCK_SIZE, data.length - start);
+			boolean last = i == numBlocks - 1;
+			
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			if (start > 0) {
+				int dictionaryLength = Math.min(DICTIONARY_SIZE, start);
+				deflater.setDictionary(data, start - dictionaryLength, dictionaryLength);
+			}
+			deflater.setInput(data, start, length);
+			
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length / 2 + 64);
+			if (i == 0) {
+				out.write(0x78); // deflate, 32K window
+				out.write(0x9C); // default compression
+			}
+			byte[] buf = new byte[64 * 1024];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buf);
+					out.write(buf, 0, n);
+				}
+			} else {
+				int n;
+				do {
+					n = deflater.deflate(buf, 0, buf.length, Deflater.SYNC_FLUSH);
+					out.write(buf, 0, n);
+				} while (n == buf.length);
+			}
+			deflater.end();
+			
+			if (last) {
+				Adler32 adler = new Adler32();
+				adler.update(data, 0, data.length);
+				long checksum = adler.getValue();
+				out.write((int) (checksum >>> 24));
+				out.write((int) (checksum >>> 16));
+				out.write((int) (checksum >>> 8));
+				out.write((int) checksum);
+			}
+			blocks[i] = out.toByteArray();
+		});
+		return blocks;
+	}
+
+	private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, offset, length);
+		
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, offset, length);
+		out.writeInt((int) crc.getValue());
+	}
+}
@@ -0,0 +1,27 @@
+package main;
+
+/*
+ * Limits the number of bytes being processed at the same time.
+ * A request larger than the whole budget is granted once nothing else is in flight.
+ */
+class ByteBudget {
+
+	private final long capacity;
+	private long inFlight;
+
+	public ByteBudget(long capacity) {
+		this.capacity = capacity;
+	}
+
+	public synchronized void acquire(long bytes) throws InterruptedException {
+		while (inFlight > 0 && inFlight + bytes > capacity) {
+			wait();
+		}
+		inFlight += bytes;
+	}
+
+	public synchronized void release(long bytes) {
+		inFlight -= bytes;
+		notifyAll();
+	}
+}
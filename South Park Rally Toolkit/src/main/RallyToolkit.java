@@ -1,18 +1,54 @@
 package main;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import fileIO.ModelReader;
 import fileIO.ResourceExtractor;
 
 public class RallyToolkit {
 
+	private static float uvEpsilon = 0;
+	private static boolean optimizeVertexCache = false;
+	private static int[] lods = null;
+	private static boolean mergeMaterials = false;
+	private static float gridCellSize = 0;
+	private static boolean pngOutput = false;
+
 public static void main(String[] args) {
 		
-		if (args.length == 0) {
+		int jobs = 1;
+		List<String> filenames = new ArrayList<String>();
+		
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--jobs") && i + 1 < args.length) {
+				jobs = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--uv-epsilon") && i + 1 < args.length) {
+				uvEpsilon = Float.parseFloat(args[++i]);
+			} else if (args[i].equals("--optimize-vertex-cache")) {
+				optimizeVertexCache = true;
+			} else if (args[i].equals("--png")) {
+				pngOutput = true;
+			} else if (args[i].equals("--merge-materials")) {
+				mergeMaterials = true;
+			} else if (args[i].equals("--grid") && i + 1 < args.length) {
+				gridCellSize = Float.parseFloat(args[++i]);
+			} else if (args[i].equals("--lod") && i + 1 < args.length) {
+				lods = parseLods(args[++i]);
+			} else {
+				filenames.add(args[i]);
+			}
+		}
+		
+		if (filenames.size() == 0) {
 			System.out.println("South Park Rally - Resource Toolkit");
-			System.out.println("Usage: RallyToolkit <filename> [<filename> ...]\n");
+			System.out.println("Usage: RallyToolkit [--jobs <n>] [--uv-epsilon <e>] [--optimize-vertex-cache] [--lod <n>[,<n>...]|all] [--merge-materials] [--grid <size>] [--png] <filename> [<filename> ...]\n");
 			
 			System.out.print("Please enter the filename (or type exit to close the program).\n\n>");
 			Scanner scanner = new Scanner(System.in);
@@ -21,26 +57,104 @@ public static void main(String[] args) {
 				System.exit(0);
 			}
 			scanner.close();
-			args = new String[] { line };
+			filenames.add(line);
 		}
 		System.out.println();
 		
-		for (String filename : args) {
-			File file = new File(filename);
+		if (jobs == 1) {
+			for (String filename : filenames) {
+				System.out.print("Processing \"" + filename + "\"...");
+				System.out.println(process(filename));
+			}
+		} else {
+			processConcurrently(filenames, jobs);
+		}
+	}
+
+	private static String process(String filename) {
+		File file = new File(filename);
+		
+		if (!file.exists()) {
+			return "failed: File not found!";
+		}
+		if (file.isDirectory()) {
+			return ResourceExtractor.createGameResource(filename);
+		} else if (filename.endsWith(".rbh")) {
+			ModelReader modelReader = new ModelReader();
+			modelReader.setUvEpsilon(uvEpsilon);
+			modelReader.setOptimizeVertexCache(optimizeVertexCache);
+			modelReader.setLods(lods);
+			modelReader.setMergeMaterials(mergeMaterials);
+			modelReader.setGridCellSize(gridCellSize);
+			return modelReader.extractModel(file.getAbsoluteFile());
+		} else {
+			return ResourceExtractor.extractGameResource(filename, pngOutput);
+		}
+	}
+
+	// "all" or a comma separated list of LOD indices
+	private static int[] parseLods(String arg) {
+		if (arg.equalsIgnoreCase("all")) {
+			return null;
+		}
+		String[] values = arg.split(",");
+		int[] lods = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			lods[i] = Integer.parseInt(values[i].trim());
+		}
+		return lods;
+	}
+
+	/*
+	 * Runs up to jobs files at the same time. A file is only started when the
+	 * sum of the sizes of all running files stays within a quarter of the heap,
+	 * results are printed in the order of the input.
+	 */
+	private static void processConcurrently(List<String> filenames, int jobs) {
+		ExecutorService executor = Executors.newFixedThreadPool(jobs);
+		ByteBudget budget = new ByteBudget(Runtime.getRuntime().maxMemory() / 4);
+		List<Future<String>> results = new ArrayList<Future<String>>(filenames.size());
+		
+		try {
+			for (String filename : filenames) {
+				long size = sizeOf(new File(filename));
+				budget.acquire(size);
+				results.add(executor.submit(() -> {
+					try {
+						return process(filename);
+					} finally {
+						budget.release(size);
+					}
+				}));
+			}
 			
-			System.out.print("Processing \"" + filename + "\"...");
-			if (file.exists()) {
-				if (file.isDirectory()) {
-					System.out.println(ResourceExtractor.createGameResource(filename));
-				} if (filename.endsWith(".rbh")) {
-					ModelReader modelReader = new ModelReader();
-					System.out.println(modelReader.extractModel(file.getAbsoluteFile()));
-				} else {
-					System.out.println(ResourceExtractor.extractGameResource(filename));
+			for (int i = 0; i < filenames.size(); i++) {
+				String result;
+				try {
+					result = results.get(i).get();
+				} catch (ExecutionException e) {
+					result = "failed: " + e.getCause();
 				}
-			} else {
-				System.out.println("failed: File not found!");
+				System.out.println("Processing \"" + filenames.get(i) + "\"..." + result);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static long sizeOf(File file) {
+		if (!file.isDirectory()) {
+			return file.length();
+		}
+		long size = 0;
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				size += f.length();
 			}
 		}
+		return size;
 	}
 }